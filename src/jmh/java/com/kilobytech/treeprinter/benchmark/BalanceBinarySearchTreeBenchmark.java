@@ -0,0 +1,119 @@
+package com.kilobytech.treeprinter.benchmark;
+
+import com.kilobytech.treeprinter.tree.BalanceBinarySearchTree;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author huangtao
+ * @Title: BalanceBinarySearchTreeBenchmark
+ * @Description: 平衡二叉搜索树插入、搜索、删除的基准测试
+ * 1.insert：每次调用往一棵空树里按 pattern 依次插入 size 个 key（ZIPFIAN 会有大量重复 key）
+ * 2.search：树里预先放好 0 ~ size - 1，每次调用按 pattern 搜索下一个 key
+ * 3.delete：每次调用前重新批量加载 0 ~ size - 1，然后按 pattern 依次删除 size 个 key
+ * insert、delete 一次调用处理 size 个 key，除了每次调用的耗时之外，还会通过 keys 计数器报告每秒处理的 key 个数，
+ * 分配速率看 -prof gc 输出的 gc.alloc.rate.norm，注意 delete 的分配量包含了每次调用前批量加载那棵树的分配
+ * @date 2020/8/9
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class BalanceBinarySearchTreeBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    private int size;
+
+    @Param({"SEQUENTIAL", "REVERSE", "RANDOM", "ZIPFIAN"})
+    private KeyPattern pattern;
+
+    // 按 pattern 生成的 key 序列
+    private Integer[] keys;
+
+    // 预先建好的树，只给 search 用
+    private BalanceBinarySearchTree<Integer> populated;
+
+    // 当前要搜索的 key 下标
+    private int cursor;
+
+    /**
+     * 每秒处理的 key 个数
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Keys {
+        public long keys;
+    }
+
+    /**
+     * delete 每次调用前需要一棵满的树
+     */
+    @State(Scope.Thread)
+    public static class Full {
+        private BalanceBinarySearchTree<Integer> tree;
+
+        @Setup(Level.Invocation)
+        public void fill(BalanceBinarySearchTreeBenchmark benchmark) {
+            tree = newTree();
+            tree.bulkLoad(Arrays.asList(KeyPattern.SEQUENTIAL.keys(benchmark.size)));
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        keys = pattern.keys(size);
+        populated = newTree();
+        populated.bulkLoad(Arrays.asList(KeyPattern.SEQUENTIAL.keys(size)));
+    }
+
+    private static BalanceBinarySearchTree<Integer> newTree() {
+        BalanceBinarySearchTree<Integer> tree = new BalanceBinarySearchTree<>();
+        tree.setTracer(null);
+        return tree;
+    }
+
+    @Benchmark
+    public BalanceBinarySearchTree<Integer> insert(Keys counter) {
+        BalanceBinarySearchTree<Integer> tree = newTree();
+        for (Integer key : keys) {
+            tree.insert(key);
+        }
+        counter.keys += keys.length;
+        return tree;
+    }
+
+    @Benchmark
+    public BalanceBinarySearchTree<Integer>.Node search() {
+        Integer key = keys[cursor];
+        if (++cursor == keys.length) {
+            cursor = 0;
+        }
+        return populated.search(key, populated.getRoot());
+    }
+
+    @Benchmark
+    public void delete(Full full, Keys counter, Blackhole blackhole) {
+        BalanceBinarySearchTree<Integer> tree = full.tree;
+        for (Integer key : keys) {
+            blackhole.consume(tree.delete(key));
+        }
+        counter.keys += keys.length;
+    }
+}
@@ -0,0 +1,53 @@
+package com.kilobytech.treeprinter.benchmark;
+
+import com.kilobytech.treeprinter.tree.BalanceBinarySearchTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author huangtao
+ * @Title: CleanBenchmark
+ * @Description: 和 REPL 的 clean 命令一样，不断删除根节点直到树为空，和 key 序列无关，所以单独放一个类
+ * @date 2020/8/9
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Thread)
+public class CleanBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    private int size;
+
+    private BalanceBinarySearchTree<Integer> tree;
+
+    @Setup(Level.Invocation)
+    public void fill() {
+        tree = new BalanceBinarySearchTree<>();
+        tree.setTracer(null);
+        tree.bulkLoad(Arrays.asList(KeyPattern.SEQUENTIAL.keys(size)));
+    }
+
+    @Benchmark
+    public int clean() {
+        while (tree.getSize() > 0) {
+            tree.delete(tree.getRoot().getData());
+        }
+        return tree.getSize();
+    }
+}
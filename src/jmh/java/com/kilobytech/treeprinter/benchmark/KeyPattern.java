@@ -0,0 +1,99 @@
+package com.kilobytech.treeprinter.benchmark;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * @author huangtao
+ * @Title: KeyPattern
+ * @Description: 基准测试的 key 序列，所有 key 都提前装箱好，避免把装箱的开销算到树的头上
+ * @date 2020/8/9
+ */
+public enum KeyPattern {
+    /**
+     * 0, 1, 2 ... size - 1
+     */
+    SEQUENTIAL {
+        @Override
+        Integer[] keys(int size, Random random) {
+            Integer[] keys = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = i;
+            }
+            return keys;
+        }
+    },
+    /**
+     * size - 1 ... 2, 1, 0
+     */
+    REVERSE {
+        @Override
+        Integer[] keys(int size, Random random) {
+            Integer[] keys = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = size - 1 - i;
+            }
+            return keys;
+        }
+    },
+    /**
+     * 0 ~ size - 1 的随机排列
+     */
+    RANDOM {
+        @Override
+        Integer[] keys(int size, Random random) {
+            Integer[] keys = SEQUENTIAL.keys(size, random);
+            Collections.shuffle(Arrays.asList(keys), random);
+            return keys;
+        }
+    },
+    /**
+     * 服从 Zipf 分布（theta = 0.99）的 key，少数热点 key 占了绝大部分访问，key 会重复，
+     * 按排名生成后再打散到 0 ~ size - 1 上，热点 key 不会都挤在树的最左边
+     */
+    ZIPFIAN {
+        @Override
+        Integer[] keys(int size, Random random) {
+            double theta = 0.99;
+            double zetaN = 0;
+            for (int i = 1; i <= size; i++) {
+                zetaN += 1 / Math.pow(i, theta);
+            }
+            double zeta2 = 1 + 1 / Math.pow(2, theta);
+            double alpha = 1 / (1 - theta);
+            double eta = (1 - Math.pow(2.0 / size, 1 - theta)) / (1 - zeta2 / zetaN);
+            // 排名对应的 key，先把 0 ~ size - 1 打乱，第 rank 名就是 shuffled[rank]
+            Integer[] shuffled = RANDOM.keys(size, random);
+            Integer[] keys = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                double u = random.nextDouble();
+                double uz = u * zetaN;
+                int rank;
+                if (uz < 1) {
+                    rank = 0;
+                } else if (uz < zeta2) {
+                    rank = 1;
+                } else {
+                    rank = (int) (size * Math.pow(eta * u - eta + 1, alpha));
+                }
+                keys[i] = shuffled[Math.min(rank, size - 1)];
+            }
+            return keys;
+        }
+    },
+    ;
+
+    /**
+     * 生成 size 个 key
+     *
+     * @param size
+     * @param random
+     * @return
+     */
+    abstract Integer[] keys(int size, Random random);
+
+    public Integer[] keys(int size) {
+        return keys(size, new Random(2020));
+    }
+}
@@ -0,0 +1,177 @@
+package com.kilobytech.treeprinter.tree;
+
+import com.kilobytech.treeprinter.service.PrintService;
+import com.kilobytech.treeprinter.vo.TreeVo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author huangtao
+ * @Title: PrintableTreeBenchmark
+ * @Description: 可打印树各个阶段的基准测试，阶段方法是包级可见的，所以这个类放在 tree 包下
+ * 1.cloneSource：复制源树
+ * 2.fillNil：用虚拟节点填满空节点
+ * 3.allocateContainer：分配打印容器并填满空格，-prof gc 的 gc.alloc.rate.norm 基本就是容器的字节数
+ * 4.buildPrintContainer：广度优先计算坐标、写入节点和连线，buildPrintContainerParallel 是在公共线程池里按子树并行画
+ * 5.buildVo：{@link PrintService#build(PrintableTree)} 构建给前端的 JSON 对象
+ * 6.print：逐行生成文本
+ * 源树是随机插入的平衡二叉树，插到高度刚好等于 height 为止，所以有不少空节点需要填充，
+ * 每个 height 在开始前会输出一行容器的行数、宽度和字符个数，容器超过堆内存的四分之一时，
+ * 依赖容器的几个阶段直接失败并给出容器大小，从这里就能看出指数膨胀到哪一步就撑不住了
+ * @date 2020/8/10
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g", "-Dfile.encoding=UTF-8"})
+@State(Scope.Benchmark)
+public class PrintableTreeBenchmark {
+
+    @Param({"4", "6", "8", "10", "12", "16", "20"})
+    private int height;
+
+    // 源树的根节点
+    private INode<Integer> source;
+
+    private final PrintService printService = new PrintService();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BalanceBinarySearchTree<Integer> tree = new BalanceBinarySearchTree<>();
+        tree.setTracer(null);
+        Random random = new Random(2020);
+        while (tree.getRoot() == null || tree.getRoot().getHeight() < height) {
+            tree.insert(random.nextInt(Integer.MAX_VALUE));
+        }
+        source = tree.getRoot();
+        PrintableTree<Integer> measured = new PrintableTree<>();
+        measured.cloneSource(source);
+        measured.fillNil();
+        measured.measureContainer();
+        long cells = measured.containerCells();
+        System.out.printf("%n# height = %d，节点 %d 个，容器 %d 行 x %d 列 = %d 个字符，约 %d MB%n",
+                height, tree.getSize(), cells / measured.getContainerWidth(), measured.getContainerWidth(), cells, (cells * 2) >> 20);
+    }
+
+    /**
+     * 容器太大时直接失败，而不是等着 OOM
+     */
+    private void checkContainer(PrintableTree<Integer> tree) {
+        tree.measureContainer();
+        long cells = tree.containerCells();
+        if (cells * 2 > Runtime.getRuntime().maxMemory() / 4) {
+            throw new IllegalStateException("height = " + height + " 时容器有 " + cells + " 个字符，超出堆内存的四分之一");
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class BeforeClone {
+        private PrintableTree<Integer> tree;
+
+        @Setup(Level.Invocation)
+        public void setUp() {
+            tree = new PrintableTree<>();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class BeforeNilFill {
+        private PrintableTree<Integer> tree;
+
+        @Setup(Level.Invocation)
+        public void setUp(PrintableTreeBenchmark benchmark) {
+            tree = new PrintableTree<>();
+            tree.cloneSource(benchmark.source);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class BeforeContainer {
+        private PrintableTree<Integer> tree;
+
+        @Setup(Level.Invocation)
+        public void setUp(PrintableTreeBenchmark benchmark) {
+            tree = new PrintableTree<>();
+            tree.cloneSource(benchmark.source);
+            tree.fillNil();
+            benchmark.checkContainer(tree);
+        }
+    }
+
+    /**
+     * 完整构建好的可打印树，坐标计算可以重复执行，所以整个 trial 只建一次
+     */
+    @State(Scope.Thread)
+    public static class Built {
+        private PrintableTree<Integer> tree;
+
+        @Setup(Level.Trial)
+        public void setUp(PrintableTreeBenchmark benchmark) {
+            tree = new PrintableTree<>();
+            tree.cloneSource(benchmark.source);
+            tree.fillNil();
+            benchmark.checkContainer(tree);
+            tree.allocateContainer();
+            tree.buildPrintContainer();
+        }
+    }
+
+    @Benchmark
+    public PrintableTree<Integer> cloneSource(BeforeClone state) {
+        state.tree.cloneSource(source);
+        return state.tree;
+    }
+
+    @Benchmark
+    public PrintableTree<Integer> fillNil(BeforeNilFill state) {
+        state.tree.fillNil();
+        return state.tree;
+    }
+
+    @Benchmark
+    public PrintableTree<Integer> allocateContainer(BeforeContainer state) {
+        state.tree.allocateContainer();
+        return state.tree;
+    }
+
+    @Benchmark
+    public PrintableTree<Integer> buildPrintContainer(Built state) {
+        state.tree.buildPrintContainer();
+        return state.tree;
+    }
+
+    /**
+     * 在公共线程池里并行构建，和 buildPrintContainer 对比就是并行的加速比
+     */
+    @Benchmark
+    public PrintableTree<Integer> buildPrintContainerParallel(Built state) {
+        state.tree.buildPrintContainer(ForkJoinPool.commonPool());
+        return state.tree;
+    }
+
+    @Benchmark
+    public TreeVo buildVo(Built state) {
+        return printService.build(state.tree);
+    }
+
+    @Benchmark
+    public PrintableTree<Integer> print(Built state) {
+        state.tree.print();
+        return state.tree;
+    }
+}
@@ -1,7 +1,9 @@
 package com.kilobytech.treeprinter;
 
 import com.kilobytech.treeprinter.tree.BalanceBinarySearchTree;
+import com.kilobytech.treeprinter.tree.LayoutMode;
 import com.kilobytech.treeprinter.tree.PrintableTree;
+import com.kilobytech.treeprinter.tree.RenderCache;
 import com.kilobytech.treeprinter.util.RandomUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.RandomUtils;
@@ -9,6 +11,11 @@ import org.apache.commons.lang3.StringUtils;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.Arrays;
@@ -16,6 +23,8 @@ import java.util.LinkedList;
 import java.util.Objects;
 import java.util.Queue;
 import java.util.Scanner;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 @SpringBootApplication
 @Slf4j
@@ -28,6 +37,14 @@ public class TreePrinterApplication {
 
     public static void test() {
         BalanceBinarySearchTree<Integer> sourceTree = new BalanceBinarySearchTree();
+        // 打印树形图时使用的布局方式
+        LayoutMode layoutMode = LayoutMode.FULL;
+        // 打印树形图时最多打印几层，更深的子树折叠成摘要
+        int maxDepth = Integer.MAX_VALUE;
+        // 订阅了源树的可打印树，插入、删除之后 show 只重画变化的子树，布局、深度变了或者重置时作废
+        PrintableTree<Integer> live = null;
+        // 打印结果的缓存，树没有改过时 look、show 节点直接复用上次的布局
+        RenderCache<PrintableTree<Integer>> layouts = new RenderCache<>(16);
         Scanner scanner = new Scanner(System.in);
         log.error("请输入任意数字，然后按回车键确认进行插入，例如：93 回车，或者用逗号分隔批量插入 1,2,3,4 回车");
         while (true) {
@@ -43,13 +60,18 @@ public class TreePrinterApplication {
                 } else if (line.startsWith("show")) {
                     line = line.trim();
                     if (line.length() == "show".length()) {
-                        new PrintableTree<Integer>(sourceTree.getRoot()).print();
+                        if (Objects.isNull(live)) {
+                            live = PrintableTree.subscribe(sourceTree, layoutMode, maxDepth);
+                        }
+                        live.print();
                         log.error("show 后面还可以跟参数[你要查看的数据]，例如：show 93 回车");
                     } else {
                         int show = Integer.parseInt(line.substring("show ".length()));
                         BalanceBinarySearchTree<Integer>.Node node = sourceTree.search(show, sourceTree.getRoot());
                         if (Objects.nonNull(node)) {
-                            new PrintableTree<Integer>(node).print();
+                            LayoutMode mode = layoutMode;
+                            int depth = maxDepth;
+                            layouts.get(RenderCache.Key.of(sourceTree, node, mode, depth), () -> PrintableTree.fitting(node, mode, depth, null)).print();
                         } else {
                             log.warn("节点[" + show + "]不存在，show 啥啊？");
                             log.info("不妨先插入，例如：add {}", show);
@@ -63,13 +85,15 @@ public class TreePrinterApplication {
                         log.info("根节点为空");
                         continue;
                     }
+                    LayoutMode mode = layoutMode;
+                    // 同一棵树同一个版本只布局一次，不再每个节点都重新构建一棵可打印树
+                    PrintableTree<Integer> pt = layouts.get(RenderCache.Key.of(sourceTree, mode, Integer.MAX_VALUE), () -> new PrintableTree<>(root, mode));
                     if (line.length() == "look".length()) {
                         // 层序遍历挨个儿 look
                         Queue<BalanceBinarySearchTree<Integer>.Node> access = new LinkedList<>();
                         access.offer(root);
                         while (!access.isEmpty()) {
                             BalanceBinarySearchTree<Integer>.Node node = access.poll();
-                            PrintableTree<Integer> pt = new PrintableTree<>(sourceTree.getRoot());
                             PrintableTree<Integer>.PrintableNode lkPNode = pt.search(node.getData(), pt.getRoot());
                             log.info("节点[{}] 高度：{}，深度：{}，平衡因子：{}，水平偏移：{}，垂直偏移：{}",
                                     node.getData(), node.getHeight(), node.calculateDepth(), node.getBalanceFactor(),
@@ -87,7 +111,6 @@ public class TreePrinterApplication {
                     } else {
                         int look = Integer.parseInt(line.substring("look ".length()));
                         BalanceBinarySearchTree<Integer>.Node node = sourceTree.search(look, sourceTree.getRoot());
-                        PrintableTree<Integer> pt = new PrintableTree<>(sourceTree.getRoot());
                         PrintableTree<Integer>.PrintableNode lkPNode = pt.search(look, pt.getRoot());
                         if (Objects.nonNull(node)) {
                             log.info("节点[{}] 高度：{}，深度：{}，平衡因子：{}，水平偏移：{}，垂直偏移：{}",
@@ -103,13 +126,8 @@ public class TreePrinterApplication {
                     line = line.trim();
                     int seqBatch = Integer.parseInt(line.substring("asc batch ".length()));
                     LocalDateTime start = LocalDateTime.now();
-                    for (int i = 0; i < seqBatch; i++) {
-                        if (i % 32768 == 0) {
-                            log.info("当前size: " + sourceTree.getSize());
-                            log.info("耗时：{} 秒", Duration.between(start, LocalDateTime.now()).getSeconds());
-                        }
-                        sourceTree.insert(i);
-                    }
+                    // 升序数据直接批量加载，不再逐个插入
+                    sourceTree.bulkLoad(IntStream.range(0, seqBatch).boxed().collect(Collectors.toList()));
                     log.info("当前size: " + sourceTree.getSize());
                     log.info("耗时：{} 秒", Duration.between(start, LocalDateTime.now()).getSeconds());
                     log.info("批量顺序插入完毕");
@@ -117,9 +135,8 @@ public class TreePrinterApplication {
                 } else if (line.startsWith("desc batch")) {
                     line = line.trim();
                     int seqBatch = Integer.parseInt(line.substring("desc batch ".length()));
-                    for (int i = seqBatch; i > 0; i--) {
-                        sourceTree.insert(i);
-                    }
+                    // 倒序数据批量加载时排序只需 O(n)
+                    sourceTree.bulkLoad(IntStream.iterate(seqBatch, i -> i - 1).limit(seqBatch).boxed().collect(Collectors.toList()));
                     log.info("批量倒序插入完毕");
                     log.info("你可以随便搜索一个看看，例如：search 3");
                 } else if (line.startsWith("batch")) {
@@ -191,6 +208,10 @@ public class TreePrinterApplication {
                     log.info("你可以现在你可以查看树的节点个数，例如：size 回车");
                 } else if ("reset".equalsIgnoreCase(line.trim())) {
                     sourceTree = new BalanceBinarySearchTree();
+                    if (Objects.nonNull(live)) {
+                        live.unsubscribe();
+                        live = null;
+                    }
                 } else if ("root".equalsIgnoreCase(line.trim())) {
                     log.info("root = [" + sourceTree.getRoot().getData() + "]节点的平衡因子：" + sourceTree.getRoot().getBalanceFactor());
                     log.info("root = [" + sourceTree.getRoot().getData() + "]节点的高度：" + sourceTree.getRoot().getHeight());
@@ -199,9 +220,12 @@ public class TreePrinterApplication {
                     } else {
                         log.info("你可以搜索这个根节点看看，例如：search {}", sourceTree.getRoot().getData());
                     }
+                } else if ("cache".equalsIgnoreCase(line.trim())) {
+                    log.info("打印缓存：{}/{} 个条目，命中 {} 次，未命中 {} 次", layouts.size(), layouts.getCapacity(), layouts.getHits(), layouts.getMisses());
                 } else if ("size".equalsIgnoreCase(line.trim())) {
                     int size = sourceTree.getSize();
                     log.info("当前 size: " + size);
+                    log.info("平均每次插入、删除平衡访问的祖先节点个数：{}", sourceTree.getAverageReBalanceVisits());
                     log.info("你可以用顺序批量插入 asc batch [最大数]，例如：asc batch 5");
                 } else if (line.startsWith("test")) {
                     line = line.trim();
@@ -243,12 +267,96 @@ public class TreePrinterApplication {
                     int add = Integer.parseInt(line.substring("add ".length()));
                     boolean insert = sourceTree.insert(add);
                     if (insert) {
-                        new PrintableTree<Integer>(sourceTree.getRoot()).print();
+                        if (Objects.isNull(live)) {
+                            live = PrintableTree.subscribe(sourceTree, layoutMode, maxDepth);
+                        }
+                        live.print();
+                    } else {
+                        log.warn("节点 [" + add + "] 已存在，换个数字好吗 (^_^)!");
                     }
                     log.info("你现在可以搜索刚插入的这个节点，例如：search {}", add);
+                } else if (line.startsWith("layout")) {
+                    line = line.trim();
+                    if (line.length() == "layout".length()) {
+                        log.info("当前布局方式：{}，可选：{}", layoutMode, Arrays.toString(LayoutMode.values()));
+                        continue;
+                    }
+                    try {
+                        layoutMode = LayoutMode.valueOf(line.substring("layout ".length()).trim().toUpperCase());
+                        if (Objects.nonNull(live)) {
+                            live.unsubscribe();
+                            live = null;
+                        }
+                        log.info("布局方式已切换为 {}，试试 show 回车", layoutMode);
+                    } catch (IllegalArgumentException e) {
+                        log.warn("没有这种布局方式，可选：{}", Arrays.toString(LayoutMode.values()));
+                    }
+                } else if (line.startsWith("depth")) {
+                    line = line.trim();
+                    if (line.length() == "depth".length()) {
+                        log.info("当前最多打印 {} 层", maxDepth == Integer.MAX_VALUE ? "所有" : String.valueOf(maxDepth));
+                        log.info("depth 后面跟层数限制打印的深度，例如：depth 4，depth 0 恢复打印所有层");
+                        continue;
+                    }
+                    int depth = Integer.parseInt(line.substring("depth ".length()).trim());
+                    maxDepth = depth <= 0 ? Integer.MAX_VALUE : depth;
+                    if (Objects.nonNull(live)) {
+                        live.unsubscribe();
+                        live = null;
+                    }
+                    log.info("show 时更深的子树会折叠成[n=节点个数 最小值~最大值 h=高度]，试试 show 回车");
+                } else if (line.startsWith("export")) {
+                    line = line.trim();
+                    if (line.length() == "export".length()) {
+                        log.warn("export 需要一个参数[文件路径]，例如：export tree.txt");
+                        continue;
+                    }
+                    Path file = Paths.get(line.substring("export ".length()).trim());
+                    // 直接写进文件的内存映射区，不分配整个打印容器，几个 GB 的画布也不会撑爆内存
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                            StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                        PrintableTree.map(sourceTree.getRoot(), layoutMode, maxDepth, channel);
+                        log.info("已按 {} 布局写入 {}，共 {} 字节", layoutMode, file.toAbsolutePath(), channel.size());
+                    } catch (IOException e) {
+                        log.error("写入文件[{}]失败：{}", file, e.getMessage());
+                    }
+                } else if (line.startsWith("rank")) {
+                    line = line.trim();
+                    int rank = Integer.parseInt(line.substring("rank ".length()));
+                    log.info("小于[{}]的数据有 {} 个", rank, sourceTree.rank(rank));
+                    log.info("你可以按排名查找数据，例如：select {}", sourceTree.rank(rank));
+                } else if (line.startsWith("select")) {
+                    line = line.trim();
+                    int select = Integer.parseInt(line.substring("select ".length()));
+                    if (select < 0 || select >= sourceTree.getSize()) {
+                        log.warn("排名[{}]超出范围，当前 size = {}", select, sourceTree.getSize());
+                        continue;
+                    }
+                    log.info("排名第 {} 的数据是[{}]（排名从 0 开始）", select, sourceTree.select(select).getData());
+                    log.info("你可以打印这个排名附近的子树，例如：around {}", select);
+                } else if (line.startsWith("count")) {
+                    String[] range = line.trim().substring("count ".length()).trim().split("\\s+");
+                    if (range.length < 2) {
+                        log.warn("count 需要两个参数[起始数据] [结束数据]，例如：count 3 9");
+                        continue;
+                    }
+                    int from = Integer.parseInt(range[0]);
+                    int to = Integer.parseInt(range[1]);
+                    log.info("区间[{}, {}]内的数据有 {} 个", from, to, sourceTree.countRange(from, to));
+                } else if (line.startsWith("around")) {
+                    String[] args = line.trim().substring("around ".length()).trim().split("\\s+");
+                    int rank = Integer.parseInt(args[0]);
+                    int up = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+                    if (rank < 0 || rank >= sourceTree.getSize()) {
+                        log.warn("排名[{}]超出范围，当前 size = {}", rank, sourceTree.getSize());
+                        continue;
+                    }
+                    new PrintableTree<Integer>(sourceTree.around(rank, up), layoutMode, maxDepth).print();
+                    log.info("around 后面还可以跟第二个参数[往上走的层数]，例如：around {} 3", rank);
                 } else {
                     final BalanceBinarySearchTree<Integer> ft = sourceTree;
-                    Arrays.stream(line.trim().split(",")).mapToInt(Integer::parseInt).forEach(e -> ft.insert(e));
+                    long added = Arrays.stream(line.trim().split(",")).mapToInt(Integer::parseInt).filter(e -> ft.insert(e)).count();
+                    log.info("新增节点 {} 个", added);
                     log.info("批量插入的方式还有另外一种 batch [插入个数]，例如：batch 3 回车");
                 }
             } catch (NumberFormatException e) {
@@ -2,20 +2,30 @@ package com.kilobytech.treeprinter.controller;
 
 import com.kilobytech.treeprinter.service.PrintService;
 import com.kilobytech.treeprinter.tree.BalanceBinarySearchTree;
+import com.kilobytech.treeprinter.tree.LayoutMode;
 import com.kilobytech.treeprinter.tree.PrintableTree;
+import com.kilobytech.treeprinter.tree.RenderCache;
+import com.kilobytech.treeprinter.vo.CacheVo;
 import com.kilobytech.treeprinter.vo.DeleteVo;
 import com.kilobytech.treeprinter.vo.InsertVo;
+import com.kilobytech.treeprinter.vo.RankVo;
 import com.kilobytech.treeprinter.vo.TreeVo;
+import com.kilobytech.treeprinter.vo.ViewportVo;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.Resource;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * @author huangtao
@@ -32,15 +42,53 @@ public class PrintController {
 
     private final ThreadLocal<BalanceBinarySearchTree<Integer>> tree = ThreadLocal.withInitial(() -> new BalanceBinarySearchTree<>());
 
+    /**
+     * depth 不为空时只打印前 depth 层，更深的子树折叠成摘要节点，
+     * 树是由 [0, count) 批量加载出来的，内容只由 count 决定，所以用它作为缓存里树的标识，网页轮询时直接返回缓存的结果，
+     * 未命中时在公共线程池里并行构建打印容器，按请求的布局方式放不下时自动退到 SPARSE 或者 COMPACT
+     */
     @GetMapping("/{count}")
-    public TreeVo print(@PathVariable int count) {
-        BalanceBinarySearchTree<Integer> sourceTree = tree.get();
-        for (int i = 0; i < count; i++) {
-            sourceTree.insert(i);
+    public TreeVo print(@PathVariable int count, @RequestParam(defaultValue = "FULL") LayoutMode mode,
+                        @RequestParam(defaultValue = "" + Integer.MAX_VALUE) int depth) {
+        return printService.build(rangeKey(count, mode, depth), () -> {
+            BalanceBinarySearchTree<Integer> sourceTree = tree.get();
+            sourceTree.bulkLoad(IntStream.range(0, count).boxed().collect(Collectors.toList()));
+            tree.remove();
+            return PrintableTree.fitting(sourceTree.getRoot(), mode, depth, ForkJoinPool.commonPool());
+        });
+    }
+
+    /**
+     * 视口：只返回画布上一个窗口里的文本和节点，窗口用画布宽高的百分比表示，网页平移、缩放时调用，
+     * 不分配整棵树的打印容器，也不遍历窗口外的子树
+     */
+    @GetMapping("/{count}/viewport")
+    public ViewportVo viewport(@PathVariable int count, @RequestParam(defaultValue = "FULL") LayoutMode mode,
+                               @RequestParam(defaultValue = "" + Integer.MAX_VALUE) int depth,
+                               @RequestParam(defaultValue = "0") double left, @RequestParam(defaultValue = "1") double right,
+                               @RequestParam(defaultValue = "0") double top, @RequestParam(defaultValue = "1") double bottom) {
+        if (count <= 0) {
+            return null;
         }
-        PrintableTree<Integer> pTree = new PrintableTree<>(sourceTree.getRoot());
-        tree.remove();
-        return printService.build(pTree);
+        PrintableTree<Integer> layout = printService.layout(rangeKey(count, mode, depth), () -> {
+            BalanceBinarySearchTree<Integer> sourceTree = tree.get();
+            sourceTree.bulkLoad(IntStream.range(0, count).boxed().collect(Collectors.toList()));
+            tree.remove();
+            return PrintableTree.layout(sourceTree.getRoot(), mode, depth);
+        });
+        return printService.viewport(layout, left, right, top, bottom);
+    }
+
+    /**
+     * 打印结果缓存的命中统计
+     */
+    @GetMapping("/cache")
+    public Map<String, CacheVo> cache() {
+        return printService.cacheStats();
+    }
+
+    private static RenderCache.Key rangeKey(int count, LayoutMode mode, int depth) {
+        return RenderCache.Key.of("[0, " + count + ")", 0, null, mode, depth);
     }
 
     @PostMapping("/insert")
@@ -63,6 +111,15 @@ public class PrintController {
         return printService.build(pTree);
     }
 
+    @PostMapping("/rank")
+    public TreeVo rank(@RequestBody RankVo rankVo) {
+        BalanceBinarySearchTree<Integer> sourceTree = getIntegerBalanceBinarySearchTree(rankVo.getInputData());
+        int up = Objects.isNull(rankVo.getUp()) ? 2 : rankVo.getUp();
+        PrintableTree<Integer> pTree = new PrintableTree<>(sourceTree.around(rankVo.getRank(), up));
+        tree.remove();
+        return printService.build(pTree);
+    }
+
     private BalanceBinarySearchTree<Integer> getIntegerBalanceBinarySearchTree(List<Integer> inputData) {
         BalanceBinarySearchTree<Integer> sourceTree = tree.get();
         inputData.forEach(e -> sourceTree.insert(e));
@@ -1,12 +1,22 @@
 package com.kilobytech.treeprinter.service;
 
+import com.kilobytech.treeprinter.tree.INode;
+import com.kilobytech.treeprinter.tree.LayoutMode;
+import com.kilobytech.treeprinter.tree.PersistentBalanceBinarySearchTree;
+import com.kilobytech.treeprinter.tree.RenderCache;
+import com.kilobytech.treeprinter.vo.CacheVo;
 import com.kilobytech.treeprinter.vo.LineVo;
 import com.kilobytech.treeprinter.vo.NodeVo;
 import com.kilobytech.treeprinter.tree.PrintableTree;
 import com.kilobytech.treeprinter.vo.TreeVo;
+import com.kilobytech.treeprinter.vo.ViewportVo;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
  * @Title: PrintService
@@ -17,7 +27,60 @@ import java.util.*;
 @Service
 public class PrintService {
 
+    // 整棵树的打印结果，网页轮询同一棵树时直接返回
+    private final RenderCache<TreeVo> trees = new RenderCache<>(64);
+
+    // 只计算了坐标的布局，同一棵树的视口平移、缩放时复用
+    private final RenderCache<PrintableTree<?>> layouts = new RenderCache<>(16);
+
+    /**
+     * 带缓存的 {@link #build(PrintableTree)}，键相同时不再构建可打印树，直接返回上次的结果
+     *
+     * @param key
+     * @param sourceTree 未命中时才调用
+     * @param <E>
+     * @return
+     */
+    public <E extends Comparable> TreeVo build(RenderCache.Key key, Supplier<PrintableTree<E>> sourceTree) {
+        return trees.get(key, () -> build(sourceTree.get()));
+    }
+
+    /**
+     * 带缓存的布局，缓存的可打印树只会被读取，可以在多个请求之间共享
+     *
+     * @param key
+     * @param sourceTree 未命中时才调用
+     * @param <E>
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public <E extends Comparable> PrintableTree<E> layout(RenderCache.Key key, Supplier<PrintableTree<E>> sourceTree) {
+        return (PrintableTree<E>) layouts.get(key, sourceTree);
+    }
+
+    /**
+     * 两个缓存的命中统计
+     *
+     * @return
+     */
+    public Map<String, CacheVo> cacheStats() {
+        Map<String, CacheVo> stats = new LinkedHashMap<>();
+        stats.put("tree", toCacheVo(trees));
+        stats.put("layout", toCacheVo(layouts));
+        return stats;
+    }
+
+    private static CacheVo toCacheVo(RenderCache<?> cache) {
+        CacheVo cacheVo = new CacheVo();
+        cacheVo.setCapacity(cache.getCapacity());
+        cacheVo.setSize(cache.size());
+        cacheVo.setHits(cache.getHits());
+        cacheVo.setMisses(cache.getMisses());
+        return cacheVo;
+    }
+
     public <E extends Comparable> TreeVo build(PrintableTree<E> sourceTree) {
+        sourceTree.refresh();
         TreeVo treeVo = new TreeVo();
         List<NodeVo> nodes = new ArrayList<>();
         ArrayList<LineVo> lines = new ArrayList<>();
@@ -52,4 +115,90 @@ public class PrintService {
         treeVo.setLines(lines);
         return treeVo;
     }
+
+    /**
+     * 只构建水平偏移在 [left, right]、垂直偏移在 [top, bottom] 之内的节点，以及两端都在窗口里的连线，
+     * 网页平移、缩放时只取看得见的部分，不用遍历整棵树
+     *
+     * @param sourceTree
+     * @param left
+     * @param right
+     * @param top
+     * @param bottom
+     * @param <E>
+     * @return
+     */
+    public <E extends Comparable> TreeVo build(PrintableTree<E> sourceTree, double left, double right, double top, double bottom) {
+        TreeVo treeVo = new TreeVo();
+        List<NodeVo> nodes = new ArrayList<>();
+        List<LineVo> lines = new ArrayList<>();
+        Map<INode<E>, NodeVo> visible = new IdentityHashMap<>();
+        for (PrintableTree<E>.PrintableNode node : sourceTree.nodesWithin(left, right, top, bottom)) {
+            NodeVo nodeVo = toNodeVo(node);
+            nodes.add(nodeVo);
+            visible.put(node, nodeVo);
+            NodeVo parent = visible.get(node.getParent());
+            if (Objects.nonNull(parent)) {
+                lines.add(new LineVo(parent, nodeVo));
+            }
+        }
+        treeVo.setRoot(toNodeVo(sourceTree.getRoot()));
+        treeVo.setNodes(nodes);
+        treeVo.setLines(lines);
+        return treeVo;
+    }
+
+    /**
+     * 视口：窗口用画布宽高的百分比表示，文本只生成窗口里的字符，节点只取窗口里的节点
+     *
+     * @param sourceTree 通常用 {@link PrintableTree#layout(INode, LayoutMode)} 构建，不需要打印容器
+     * @param left
+     * @param right
+     * @param top
+     * @param bottom
+     * @param <E>
+     * @return
+     */
+    public <E extends Comparable> ViewportVo viewport(PrintableTree<E> sourceTree, double left, double right, double top, double bottom) {
+        if (left < 0 || left > right || right > 1 || top < 0 || top > bottom || bottom > 1) {
+            throw new IllegalArgumentException("视口 [" + left + ", " + right + "] x [" + top + ", " + bottom + "] 应该在 [0, 1] 之内");
+        }
+        int rows = sourceTree.getRowCount();
+        int width = sourceTree.getContainerWidth();
+        ViewportVo viewportVo = new ViewportVo();
+        viewportVo.setRows(rows);
+        viewportVo.setWidth(width);
+        viewportVo.setRowFrom((int) Math.floor(top * rows));
+        viewportVo.setRowTo((int) Math.ceil(bottom * rows));
+        viewportVo.setColFrom((int) Math.floor(left * width));
+        viewportVo.setColTo((int) Math.ceil(right * width));
+        char[][] window = sourceTree.viewport(viewportVo.getRowFrom(), viewportVo.getRowTo(), viewportVo.getColFrom(), viewportVo.getColTo());
+        viewportVo.setText(Arrays.stream(window).map(String::new).collect(Collectors.toList()));
+        viewportVo.setTree(build(sourceTree, left, right, top, bottom));
+        return viewportVo;
+    }
+
+    private static NodeVo toNodeVo(PrintableTree.PrintableNode node) {
+        NodeVo nodeVo = new NodeVo();
+        nodeVo.setData(node.toString());
+        nodeVo.setDepth(node.getPrintableNodeDepth());
+        nodeVo.setHorizontalOffsetPercent(node.getHorizontalOffsetPercent());
+        nodeVo.setVerticalOffsetPercent(node.getVerticalOffsetPercent());
+        return nodeVo;
+    }
+
+    /**
+     * 在指定线程池里打印某个版本的快照，快照是不可变的，写线程可以同时继续修改树
+     *
+     * @param snapshot
+     * @param executor
+     * @param <E>
+     * @return 快照为空树时结果为 null
+     */
+    public <E extends Comparable> CompletableFuture<TreeVo> buildAsync(PersistentBalanceBinarySearchTree.Snapshot<E> snapshot, Executor executor) {
+        if (Objects.isNull(snapshot.getRoot())) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.supplyAsync(() -> build(PrintableTree.fitting(snapshot.getRoot(), LayoutMode.FULL, Integer.MAX_VALUE, null)), executor);
+    }
 }
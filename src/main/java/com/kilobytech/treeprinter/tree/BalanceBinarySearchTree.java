@@ -3,7 +3,23 @@ package com.kilobytech.treeprinter.tree;
 import com.kilobytech.treeprinter.util.CalculatorHelper;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * @author huangtao
@@ -12,7 +28,7 @@ import java.util.Objects;
  * @date 2020/7/22
  */
 @Slf4j
-public class BalanceBinarySearchTree<E extends Comparable> {
+public class BalanceBinarySearchTree<E extends Comparable> implements Iterable<E> {
 
     private enum RotateType {
         L, // 当前节点单次左旋
@@ -43,10 +59,13 @@ public class BalanceBinarySearchTree<E extends Comparable> {
         private int balanceFactor;
         // 高度
         private int height;
+        // 以该节点为根的子树的节点个数，用于按排名查询
+        private int size;
 
         public Node(E data) {
             this.data = data;
             this.height = 1;
+            this.size = 1;
         }
 
         @Override
@@ -77,10 +96,16 @@ public class BalanceBinarySearchTree<E extends Comparable> {
             return balanceFactor;
         }
 
+        @Override
         public int getHeight() {
             return height;
         }
 
+        @Override
+        public int getSize() {
+            return size;
+        }
+
         @Override
         public String toString() {
             return "[" + this.data + "]";
@@ -88,20 +113,126 @@ public class BalanceBinarySearchTree<E extends Comparable> {
 
     }
 
+    /**
+     * 集合运算时，other 的子树高度不低于这个值才拆成并行任务，
+     * 高度为 12 的 AVL 子树至少有 376 个节点，再小的话任务调度的开销就不划算了
+     */
+    private static final int PARALLEL_HEIGHT = 12;
+
     // 树的根节点
     private Node root;
 
     // 数据节点个数
     private int size;
 
+    // 最近一次插入或删除后，平衡过程访问的祖先节点个数
+    private int lastReBalanceVisits;
+
+    // 平衡过程累计访问的祖先节点个数
+    private long reBalanceVisits;
+
+    // 累计平衡次数
+    private long reBalanceOperations;
+
+    // 是否开启跟踪，热点路径上只判断这个字段，关闭时不会有任何字符串拼接和装箱，默认跟随 debug 日志开关
+    private boolean tracing = log.isDebugEnabled();
+
+    // 跟踪器
+    @SuppressWarnings("unchecked")
+    private TreeTracer<E> tracer = tracing ? TreeTracer.logging() : TreeTracer.NONE;
+
+    // 结构修改次数，每次插入、删除、批量加载、切分、集合运算都会加一，只增不减，可以当作树的版本号
+    private long modCount;
+
+    // 结构变化的监听器
+    private final List<TreeListener<E>> listeners = new ArrayList<>();
+
+    // 是否有监听器，和 tracing 一样，热点路径上只判断这个字段
+    private boolean listening;
+
     public Node getRoot() {
         return root;
     }
 
+    /**
+     * 树的版本号，结构没变时不变，渲染缓存用它判断缓存的打印结果是否过期，
+     * 注意直接调用 {@link Node#setData(Comparable)} 改数据不会改变版本号
+     *
+     * @return
+     */
+    public long getModCount() {
+        return modCount;
+    }
+
+    /**
+     * 设置跟踪器，传入 null 或者 {@link TreeTracer#NONE} 就是关闭跟踪
+     *
+     * @param tracer
+     */
+    @SuppressWarnings("unchecked")
+    public void setTracer(TreeTracer<E> tracer) {
+        this.tracer = Objects.isNull(tracer) ? TreeTracer.NONE : tracer;
+        this.tracing = this.tracer != TreeTracer.NONE;
+    }
+
     public int getSize() {
         return size;
     }
 
+    /**
+     * 添加结构变化的监听器
+     *
+     * @param listener
+     */
+    public void addListener(TreeListener<E> listener) {
+        this.listeners.add(Objects.requireNonNull(listener));
+        this.listening = true;
+    }
+
+    public void removeListener(TreeListener<E> listener) {
+        this.listeners.remove(listener);
+        this.listening = !this.listeners.isEmpty();
+    }
+
+    private void fireRestructured(Node subtree) {
+        for (TreeListener<E> listener : this.listeners) {
+            listener.restructured(subtree);
+        }
+    }
+
+    private void fireRelabeled(Node node) {
+        for (TreeListener<E> listener : this.listeners) {
+            listener.relabeled(node);
+        }
+    }
+
+    private void fireRebuilt() {
+        for (TreeListener<E> listener : this.listeners) {
+            listener.rebuilt();
+        }
+    }
+
+    public int getLastReBalanceVisits() {
+        return lastReBalanceVisits;
+    }
+
+    public long getReBalanceVisits() {
+        return reBalanceVisits;
+    }
+
+    public long getReBalanceOperations() {
+        return reBalanceOperations;
+    }
+
+    /**
+     * 每次插入或删除平均访问的祖先节点个数
+     *
+     * @return
+     */
+    public double getAverageReBalanceVisits() {
+        return reBalanceOperations == 0 ? 0 : (double) reBalanceVisits / reBalanceOperations;
+    }
+
     /**
      * 删除数据
      *
@@ -109,7 +240,7 @@ public class BalanceBinarySearchTree<E extends Comparable> {
      * @return
      */
     public boolean delete(E data) {
-        Node delete = search(data, root);
+        Node delete = locate(data);
         if (Objects.isNull(delete)) {
             return false;
         }
@@ -142,40 +273,63 @@ public class BalanceBinarySearchTree<E extends Comparable> {
          *  3.2.若 delete 的平衡因子为 -1，则搜寻右子树的最小值，即搜索右子树的最
          *      左边的节点记为 Q，然后交换 delete 和 这个 Q 的数据，然后将 Q 标记
          *      为要删除的节点，于是情况就变成了上面所讲的 1 或者 2
+         * 情况 3 换过一次数据之后一定落到情况 1 或者 2，所以不需要递归，顺着往下处理即可
          */
         DeleteType deleteType = getDeleteType(delete);
+        if (deleteType == DeleteType.FULL) {
+            Node newDelete;
+            if (delete.balanceFactor >= 0) {
+                newDelete = search4Maximum(delete.left);
+            } else {
+                newDelete = search4Minimum(delete.right);
+            }
+            swapValue(delete, newDelete);
+            if (listening) {
+                fireRelabeled(delete);
+            }
+            delete = newDelete;
+            deleteType = getDeleteType(delete);
+        }
         Node p = delete.parent;
+        if (tracing) {
+            tracer.unmount(delete);
+        }
         switch (deleteType) {
             case NIL:
-                log.debug("被删除节点[" + delete.data + "]为叶子节点");
                 if (delete == root) {
                     root = null;
+                    modCount++;
+                    if (listening) {
+                        fireRebuilt();
+                    }
                     return null;
                 } else {
                     deleteChildFromParent(delete, p);
+                    resizeUpward(p, -1);
+                    modCount++;
+                    if (listening) {
+                        fireRestructured(p);
+                    }
                     return p;
                 }
             case LEFT_ONLY:
-                log.debug("被删除节点[" + delete.data + "]仅有左节点");
-                Node leftChild = delete.left;
-                connectParentWithGrandchild(delete, p, leftChild);
-                return leftChild;
+                connectParentWithGrandchild(delete, p, delete.left);
+                resizeUpward(p, -1);
+                modCount++;
+                if (listening) {
+                    fireRestructured(delete.left);
+                }
+                return p;
             case RIGHT_ONLY:
-                log.debug("被删除节点[" + delete.data + "]仅有右节点");
-                Node rightChild = delete.right;
-                connectParentWithGrandchild(delete, p, rightChild);
-                return rightChild;
-            default:
-                log.debug("被删除节点[" + delete.data + "]既有左节点，又有右节点");
-                int dBF = delete.balanceFactor;
-                Node newDelete;
-                if (dBF >= 0) {
-                    newDelete = search4Maximum(delete.left);
-                } else {
-                    newDelete = search4Minimum(delete.right);
+                connectParentWithGrandchild(delete, p, delete.right);
+                resizeUpward(p, -1);
+                modCount++;
+                if (listening) {
+                    fireRestructured(delete.right);
                 }
-                swapValue(delete, newDelete);
-                return searchAndUnmount(newDelete);
+                return p;
+            default:
+                throw new IllegalStateException("被删除节点[" + delete.data + "]换过数据后不应该还有两个子节点");
         }
     }
 
@@ -255,19 +409,44 @@ public class BalanceBinarySearchTree<E extends Comparable> {
      * @return
      */
     public Node search(E data, Node search) {
-        if (Objects.isNull(search)) {
-            log.warn("未找到节点 [" + data + "]");
-            return null;
+        while (Objects.nonNull(search)) {
+            int cmp = data.compareTo(search.data);
+            if (tracing) {
+                tracer.searchStep(data, search, cmp);
+            }
+            if (cmp < 0) {
+                search = search.left;
+            } else if (cmp > 0) {
+                search = search.right;
+            } else {
+                return search;
+            }
         }
-        if (data.compareTo(search.getData()) < 0) {
-            log.debug("节点[" + data + "] 比当前搜寻节点 [" + search.getData() + "] 小，继续往左搜寻");
-            return search(data, search.getLeft());
-        } else if (data.compareTo(search.getData()) > 0) {
-            log.debug("节点[" + data + "] 比当前搜寻节点 [" + search.getData() + "] 大，继续往右搜寻");
-            return search(data, search.getRight());
+        if (tracing) {
+            tracer.searchMiss(data);
+        }
+        return null;
+    }
+
+    /**
+     * 插入、删除用的定位，和 search 一样是一次迭代下降，只是不回调跟踪器
+     *
+     * @param data
+     * @return
+     */
+    private Node locate(E data) {
+        Node current = this.root;
+        while (Objects.nonNull(current)) {
+            int cmp = data.compareTo(current.data);
+            if (cmp < 0) {
+                current = current.left;
+            } else if (cmp > 0) {
+                current = current.right;
+            } else {
+                return current;
+            }
         }
-        log.debug("节点[" + data + "] 等于当前搜寻节点 [" + search.getData() + "] 停止搜寻");
-        return search;
+        return null;
     }
 
     /**
@@ -277,10 +456,10 @@ public class BalanceBinarySearchTree<E extends Comparable> {
      * @return
      */
     public Node search4Maximum(Node start) {
-        if (Objects.isNull(start.getRight())) {
-            return start;
+        while (Objects.nonNull(start.right)) {
+            start = start.right;
         }
-        return search4Maximum(start.getRight());
+        return start;
     }
 
     /**
@@ -290,10 +469,10 @@ public class BalanceBinarySearchTree<E extends Comparable> {
      * @return
      */
     public Node search4Minimum(Node start) {
-        if (Objects.isNull(start.getLeft())) {
-            return start;
+        while (Objects.nonNull(start.left)) {
+            start = start.left;
         }
-        return search4Minimum(start.getLeft());
+        return start;
     }
 
     /**
@@ -303,71 +482,985 @@ public class BalanceBinarySearchTree<E extends Comparable> {
      * @return
      */
     public boolean insert(E data) {
-        Node result = search(data, this.root);
-        if (Objects.nonNull(result)) {
-            log.warn("节点 [" + data + "] 已存在，换个数字好吗 (^_^)!");
-            return false;
-        }
-        Node newNode = new Node(data);
+        return Objects.isNull(putIfAbsent(data));
+    }
 
+    /**
+     * 插入新值，一次迭代下降同时完成查重和寻找挂载点
+     *
+     * @param data
+     * @return 数据已存在时返回已有的节点，插入成功返回 null
+     */
+    public Node putIfAbsent(E data) {
         if (Objects.isNull(this.root)) {
-            this.root = newNode;
+            this.root = new Node(data);
             size++;
-            log.info("新增根节点[{}]成功", data);
-            return true;
+            modCount++;
+            if (listening) {
+                fireRestructured(this.root);
+            }
+            return null;
         }
-        // 搜索并将新节点挂载
-        Node reBalance = searchAndMount(newNode, root);
-        reBalance(reBalance);
+        Node mount = this.root;
+        int cmp;
+        while (true) {
+            cmp = data.compareTo(mount.data);
+            if (cmp == 0) {
+                return mount;
+            }
+            Node next = cmp < 0 ? mount.left : mount.right;
+            if (Objects.isNull(next)) {
+                break;
+            }
+            mount = next;
+        }
+        Node newNode = new Node(data);
+        if (cmp < 0) {
+            mount.left = newNode;
+        } else {
+            mount.right = newNode;
+        }
+        newNode.parent = mount;
+        modCount++;
+        if (listening) {
+            fireRestructured(newNode);
+        }
+        // 先把路径上的子树节点个数都加一，旋转时才能根据子节点算出正确的个数
+        resizeUpward(mount, 1);
+        reBalance(mount);
         size++;
-        log.info("新增节点[{}]成功", data);
-        return true;
+        return null;
+    }
+
+    /**
+     * 排名：树中小于 data 的数据个数，复杂度 O(log n)
+     *
+     * @param data
+     * @return
+     */
+    public int rank(E data) {
+        return countLessThan(this.root, data, false);
+    }
+
+    /**
+     * 按排名查找，排名从 0 开始，即第 rank + 1 小的数据所在节点，复杂度 O(log n)
+     *
+     * @param rank
+     * @return
+     */
+    public Node select(int rank) {
+        if (rank < 0 || rank >= size) {
+            throw new IndexOutOfBoundsException("排名[" + rank + "]超出范围，当前 size = " + size);
+        }
+        Node current = this.root;
+        while (true) {
+            int leftSize = sizeOf(current.left);
+            if (rank < leftSize) {
+                current = current.left;
+            } else if (rank > leftSize) {
+                rank -= leftSize + 1;
+                current = current.right;
+            } else {
+                return current;
+            }
+        }
+    }
+
+    /**
+     * 统计闭区间 [from, to] 内的数据个数，复杂度 O(log n)
+     *
+     * @param from
+     * @param to
+     * @return
+     */
+    public int countRange(E from, E to) {
+        if (from.compareTo(to) > 0) {
+            return 0;
+        }
+        return countLessThan(this.root, to, true) - countLessThan(this.root, from, false);
+    }
+
+    /**
+     * 找到排名为 rank 的节点，再往上走 levels 层，返回那个祖先节点，方便打印这个排名附近的子树
+     *
+     * @param rank
+     * @param levels
+     * @return
+     */
+    public Node around(int rank, int levels) {
+        Node node = select(rank);
+        for (int i = 0; i < levels && Objects.nonNull(node.parent); i++) {
+            node = node.parent;
+        }
+        return node;
+    }
+
+    /**
+     * 统计子树里小于（或小于等于）data 的数据个数
+     *
+     * @param subtree
+     * @param data
+     * @param inclusive
+     * @return
+     */
+    private int countLessThan(Node subtree, E data, boolean inclusive) {
+        int count = 0;
+        Node current = subtree;
+        while (Objects.nonNull(current)) {
+            int cmp = data.compareTo(current.data);
+            if (cmp < 0 || (cmp == 0 && !inclusive)) {
+                current = current.left;
+            } else {
+                count += sizeOf(current.left) + 1;
+                if (cmp == 0) {
+                    break;
+                }
+                current = current.right;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 中序（升序）迭代器，用显式栈代替递归，栈的容量就是树的高度，迭代过程中不再分配内存，
+     * 迭代期间不能修改这棵树
+     *
+     * @return
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new InOrderIterator(null, this.root, null, null);
+    }
+
+    /**
+     * 闭区间 [from, to] 内的中序迭代器，from 或 to 为 null 表示这一侧不设边界
+     *
+     * @param from
+     * @param to
+     * @return
+     */
+    public Iterator<E> iterator(E from, E to) {
+        return new InOrderIterator(null, this.root, from, to);
+    }
+
+    /**
+     * 按子树边界切分的 {@link Spliterator}，借助子树节点个数可以精确地报告每一份的大小，
+     * 所以 {@code tree.stream().parallel()} 能把扫描、聚合、校验均匀地分摊到所有核上
+     *
+     * @return
+     */
+    @Override
+    public Spliterator<E> spliterator() {
+        return new SubtreeSpliterator(null, this.root, null, null);
+    }
+
+    public Spliterator<E> spliterator(E from, E to) {
+        return new SubtreeSpliterator(null, this.root, from, to);
+    }
+
+    public Stream<E> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * 闭区间 [from, to] 内的数据流
+     *
+     * @param from
+     * @param to
+     * @return
+     */
+    public Stream<E> stream(E from, E to) {
+        return StreamSupport.stream(spliterator(from, to), false);
+    }
+
+    private boolean belowFrom(E data, E from) {
+        return Objects.nonNull(from) && data.compareTo(from) < 0;
+    }
+
+    private boolean aboveTo(E data, E to) {
+        return Objects.nonNull(to) && data.compareTo(to) > 0;
+    }
+
+    /**
+     * 中序迭代器：先输出 pending 节点（可以为空），再按升序输出 subtree 里落在 [from, to] 内的数据
+     * 栈里存的是还没输出、并且右子树还没展开的祖先节点，任何时刻栈里的节点都在同一条从上往下的路径上，
+     * 所以栈的深度不会超过子树的高度
+     */
+    private class InOrderIterator implements Iterator<E> {
+        private final Object[] stack;
+        private final E to;
+        private int top;
+        private Node pending;
+        private Node next;
+
+        private InOrderIterator(Node pending, Node subtree, E from, E to) {
+            this.stack = new Object[heightOf(subtree)];
+            this.to = to;
+            this.pending = pending;
+            pushLeft(subtree, from);
+            advance();
+        }
+
+        /**
+         * 沿着左子节点一路入栈，小于 from 的节点连同它的左子树都跳过
+         */
+        private void pushLeft(Node node, E from) {
+            while (Objects.nonNull(node)) {
+                if (belowFrom(node.data, from)) {
+                    node = node.right;
+                } else {
+                    stack[top++] = node;
+                    node = node.left;
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            if (Objects.nonNull(pending)) {
+                next = pending;
+                pending = null;
+                return;
+            }
+            if (top == 0) {
+                next = null;
+                return;
+            }
+            Node node = (Node) stack[--top];
+            stack[top] = null;
+            if (aboveTo(node.data, to)) {
+                // 升序输出，第一个超过 to 的数据之后全都超过 to
+                top = 0;
+                next = null;
+                return;
+            }
+            // 弹出节点的右子树都大于它，而它不小于 from，所以右子树不用再判断 from
+            pushLeft(node.right, null);
+            next = node;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return Objects.nonNull(next);
+        }
+
+        @Override
+        public E next() {
+            if (Objects.isNull(next)) {
+                throw new NoSuchElementException();
+            }
+            E data = next.data;
+            advance();
+            return data;
+        }
+    }
+
+    /**
+     * 按子树边界切分的 Spliterator，覆盖的数据是：pending 节点（可以为空）+ subtree 里落在 [from, to] 内的数据
+     * 切分时先把 subtree 收窄到根节点落在区间内，然后：
+     * 前一半 = pending + 根节点的左子树（左子树都小于根节点，也就不超过 to）
+     * 后一半 = 根节点作为新的 pending + 根节点的右子树（右子树都大于根节点，也就不小于 from）
+     * 每一份的大小都可以借助子树节点个数在 O(log n) 内精确算出
+     */
+    private class SubtreeSpliterator implements Spliterator<E> {
+        private Node pending;
+        private Node subtree;
+        private E from;
+        private E to;
+        private int size;
+        // 开始遍历后就不再切分
+        private InOrderIterator iterator;
+
+        private SubtreeSpliterator(Node pending, Node subtree, E from, E to) {
+            this.pending = pending;
+            this.subtree = subtree;
+            this.from = from;
+            this.to = to;
+            this.size = (Objects.isNull(pending) ? 0 : 1) + countWithin(subtree, from, to);
+        }
+
+        @Override
+        public Spliterator<E> trySplit() {
+            if (Objects.nonNull(iterator) || size < 2) {
+                return null;
+            }
+            while (Objects.nonNull(subtree)) {
+                if (belowFrom(subtree.data, from)) {
+                    subtree = subtree.right;
+                } else if (aboveTo(subtree.data, to)) {
+                    subtree = subtree.left;
+                } else {
+                    break;
+                }
+            }
+            if (Objects.isNull(subtree)) {
+                return null;
+            }
+            Node splitAt = subtree;
+            SubtreeSpliterator prefix = new SubtreeSpliterator(pending, splitAt.left, from, null);
+            this.pending = splitAt;
+            this.subtree = splitAt.right;
+            this.from = null;
+            this.size -= prefix.size;
+            return prefix;
+        }
+
+        private InOrderIterator iterator() {
+            if (Objects.isNull(iterator)) {
+                iterator = new InOrderIterator(pending, subtree, from, to);
+            }
+            return iterator;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super E> action) {
+            InOrderIterator it = iterator();
+            if (!it.hasNext()) {
+                return false;
+            }
+            size--;
+            action.accept(it.next());
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super E> action) {
+            InOrderIterator it = iterator();
+            while (it.hasNext()) {
+                action.accept(it.next());
+            }
+            size = 0;
+        }
+
+        @Override
+        public long estimateSize() {
+            return size;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | DISTINCT | SORTED | NONNULL | SIZED | SUBSIZED;
+        }
+
+        /**
+         * 自然顺序
+         */
+        @Override
+        public Comparator<? super E> getComparator() {
+            return null;
+        }
+    }
+
+    /**
+     * 统计子树里落在 [from, to] 内的数据个数
+     */
+    private int countWithin(Node subtree, E from, E to) {
+        int upper = Objects.isNull(to) ? sizeOf(subtree) : countLessThan(subtree, to, true);
+        int lower = Objects.isNull(from) ? 0 : countLessThan(subtree, from, false);
+        return Math.max(upper - lower, 0);
+    }
+
+    /**
+     * 批量加载数据
+     * 数据无需有序，也允许重复，这里先排序（升序或者降序的输入 TimSort 只需要 O(n)）并去重，
+     * 再和树上已有的数据做一次归并，最后自底向上直接构建出一棵高度平衡的树，每个节点的高度和
+     * 平衡因子都在构建时一并算好，所以后续的单个插入、删除可以照常进行，
+     * 整个过程不需要逐个 search、searchAndMount 和 reBalance，复杂度是 O(n)，
+     * 注意：重建后原来的节点对象不再属于这棵树，之前 search 出来的节点引用也就失效了
+     *
+     * @param data
+     * @return 实际新增的节点个数
+     */
+    public int bulkLoad(Collection<? extends E> data) {
+        if (Objects.isNull(data) || data.isEmpty()) {
+            return 0;
+        }
+        Object[] incoming = data.toArray();
+        Arrays.sort(incoming);
+        int incomingCount = distinct(incoming);
+        // 取出树上已有的数据，中序遍历出来天然就是有序的
+        Object[] existing = inOrderData();
+        Object[] merged = new Object[existing.length + incomingCount];
+        int mergedCount = merge(existing, incoming, incomingCount, merged);
+        int added = mergedCount - this.size;
+        this.root = build(merged, 0, mergedCount, null);
+        this.size = mergedCount;
+        modCount++;
+        if (listening) {
+            fireRebuilt();
+        }
+        log.info("批量加载完毕，新增节点 {} 个", added);
+        return added;
+    }
+
+    /**
+     * 对有序数组原地去重
+     *
+     * @param sorted
+     * @return 去重后的元素个数
+     */
+    private int distinct(Object[] sorted) {
+        int count = 0;
+        for (Object e : sorted) {
+            if (count == 0 || ((E) e).compareTo(sorted[count - 1]) != 0) {
+                sorted[count++] = e;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 中序遍历取出树上所有数据，用显式栈代替递归
+     *
+     * @return
+     */
+    private Object[] inOrderData() {
+        Object[] data = new Object[this.size];
+        Deque<Node> stack = new ArrayDeque<>();
+        Node current = this.root;
+        int i = 0;
+        while (Objects.nonNull(current) || !stack.isEmpty()) {
+            while (Objects.nonNull(current)) {
+                stack.push(current);
+                current = current.left;
+            }
+            current = stack.pop();
+            data[i++] = current.data;
+            current = current.right;
+        }
+        return data;
+    }
+
+    /**
+     * 归并两个有序数组，相等的数据只保留一份
+     *
+     * @param existing
+     * @param incoming
+     * @param incomingCount
+     * @param merged
+     * @return 归并后的元素个数
+     */
+    private int merge(Object[] existing, Object[] incoming, int incomingCount, Object[] merged) {
+        int i = 0, j = 0, k = 0;
+        while (i < existing.length && j < incomingCount) {
+            int cmp = ((E) existing[i]).compareTo(incoming[j]);
+            if (cmp < 0) {
+                merged[k++] = existing[i++];
+            } else if (cmp > 0) {
+                merged[k++] = incoming[j++];
+            } else {
+                merged[k++] = existing[i++];
+                j++;
+            }
+        }
+        while (i < existing.length) {
+            merged[k++] = existing[i++];
+        }
+        while (j < incomingCount) {
+            merged[k++] = incoming[j++];
+        }
+        return k;
+    }
+
+    /**
+     * 以有序数组 [from, to) 区间的中点为根递归构建子树，
+     * 左半区间的元素个数总是不少于右半区间，所以平衡因子只会是 0 或者 1
+     *
+     * @param sorted
+     * @param from
+     * @param to
+     * @param parent
+     * @return 子树根节点
+     */
+    private Node build(Object[] sorted, int from, int to, Node parent) {
+        if (from >= to) {
+            return null;
+        }
+        int mid = (from + to) >>> 1;
+        Node node = new Node((E) sorted[mid]);
+        node.parent = parent;
+        node.left = build(sorted, from, mid, node);
+        node.right = build(sorted, mid + 1, to, node);
+        node.height = calculateHeight(node);
+        node.balanceFactor = calculateBalanceFactor(node);
+        node.size = calculateSize(node);
+        return node;
+    }
+
+    /**
+     * 连接两棵树：left 里的所有数据 < key < right 里的所有数据，
+     * 只沿着较高那棵树的一侧往下走到和另一棵树高度相当的位置再挂上去，复杂度 O(|h(left) - h(right)| + 1)，
+     * 连接之后 left、right 的节点都归新树所有，这两棵树会被清空
+     *
+     * @param left
+     * @param key
+     * @param right
+     * @param <E>
+     * @return
+     */
+    public static <E extends Comparable> BalanceBinarySearchTree<E> join(BalanceBinarySearchTree<E> left, E key, BalanceBinarySearchTree<E> right) {
+        if (Objects.nonNull(left.root) && left.search4Maximum(left.root).data.compareTo(key) >= 0) {
+            throw new IllegalArgumentException("左树的数据必须都小于连接数据[" + key + "]");
+        }
+        if (Objects.nonNull(right.root) && right.search4Minimum(right.root).data.compareTo(key) <= 0) {
+            throw new IllegalArgumentException("右树的数据必须都大于连接数据[" + key + "]");
+        }
+        BalanceBinarySearchTree<E> joined = new BalanceBinarySearchTree<>();
+        joined.mountRoot(joined.join(left.root, joined.new Node(key), right.root));
+        joined.size = left.size + right.size + 1;
+        left.clear();
+        right.clear();
+        return joined;
+    }
+
+    /**
+     * 切分：本树只保留小于 key 的数据，大于等于 key 的数据切出去组成一棵新树返回，复杂度 O(log n)
+     *
+     * @param key
+     * @return
+     */
+    public BalanceBinarySearchTree<E> split(E key) {
+        SplitResult split = split(this.root, key);
+        BalanceBinarySearchTree<E> greater = new BalanceBinarySearchTree<>();
+        Node greaterRoot = split.right;
+        if (Objects.nonNull(split.found)) {
+            // 切到的节点作为最小值挂回右边
+            greaterRoot = join(null, split.found, greaterRoot);
+        }
+        greater.mountRoot(greaterRoot);
+        greater.size = sizeOf(greaterRoot);
+        mountRoot(split.left);
+        this.size -= greater.size;
+        return greater;
+    }
+
+    /**
+     * 并集：把 other 的数据合并进本树，other 保持不变
+     * 算法是基于 join 的：取出 other 的根节点 k，用 k 把本树切成左右两半，
+     * 左半和 other 的左子树求并、右半和 other 的右子树求并，最后用 k 把两个结果 join 起来，
+     * 两边的递归互不相干，子树足够大时交给 ForkJoinPool 并行执行，
+     * 总工作量为 O(m log(n/m + 1))，m、n 分别是较小、较大那棵树的节点个数
+     *
+     * @param other
+     * @return 实际新增的节点个数
+     */
+    public int union(BalanceBinarySearchTree<E> other) {
+        return setOperation(SetOperation.UNION, other);
+    }
+
+    /**
+     * 交集：本树只保留同时存在于 other 中的数据，other 保持不变
+     *
+     * @param other
+     * @return 被移除的节点个数
+     */
+    public int intersection(BalanceBinarySearchTree<E> other) {
+        return -setOperation(SetOperation.INTERSECTION, other);
+    }
+
+    /**
+     * 差集：从本树中移除所有存在于 other 中的数据，other 保持不变
+     *
+     * @param other
+     * @return 被移除的节点个数
+     */
+    public int difference(BalanceBinarySearchTree<E> other) {
+        return -setOperation(SetOperation.DIFFERENCE, other);
+    }
+
+    /**
+     * 执行集合运算，运算过程中本树的节点会被切开重组，所以先把根节点摘下来，
+     * 这样旋转时就不会误改 root，各个并行任务也只会碰到互不相交的节点
+     *
+     * @param operation
+     * @param other
+     * @return 节点个数的变化量
+     */
+    private int setOperation(SetOperation operation, BalanceBinarySearchTree<E> other) {
+        if (this == other) {
+            throw new IllegalArgumentException("不能和自身做集合运算");
+        }
+        Node source = this.root;
+        this.root = null;
+        LongAdder matched = new LongAdder();
+        Node result = ForkJoinPool.commonPool().invoke(new SetOperationTask(operation, source, other.root, matched));
+        mountRoot(result);
+        int before = this.size;
+        int m = matched.intValue();
+        switch (operation) {
+            case UNION:
+                this.size = before + other.size - m;
+                break;
+            case INTERSECTION:
+                this.size = m;
+                break;
+            default:
+                this.size = before - m;
+                break;
+        }
+        log.info("集合运算[{}]完毕，节点个数 {} -> {}", operation, before, this.size);
+        return this.size - before;
+    }
+
+    private enum SetOperation {
+        UNION, // 并集
+        INTERSECTION, // 交集
+        DIFFERENCE, // 差集
+        ;
+    }
+
+    /**
+     * 集合运算任务，other 的子树高度不低于 PARALLEL_HEIGHT 时左右两边并行递归，否则直接在当前线程递归
+     */
+    private class SetOperationTask extends RecursiveTask<Node> {
+
+        private final SetOperation operation;
+        // 本树的子树，会被切开重组
+        private final Node source;
+        // other 的子树，只读
+        private final Node other;
+        // 两边都存在的数据个数
+        private final LongAdder matched;
+
+        private SetOperationTask(SetOperation operation, Node source, Node other, LongAdder matched) {
+            this.operation = operation;
+            this.source = source;
+            this.other = other;
+            this.matched = matched;
+        }
+
+        @Override
+        protected Node compute() {
+            if (Objects.isNull(source) || Objects.isNull(other) || other.height < PARALLEL_HEIGHT) {
+                return setOperation(operation, source, other, matched);
+            }
+            SplitResult split = split(source, other.data);
+            SetOperationTask leftTask = new SetOperationTask(operation, split.left, other.left, matched);
+            leftTask.fork();
+            Node right = new SetOperationTask(operation, split.right, other.right, matched).compute();
+            Node left = leftTask.join();
+            return combine(operation, left, split.found, other, right, matched);
+        }
+    }
+
+    /**
+     * 顺序执行的集合运算递归
+     *
+     * @return 运算结果子树的根节点
+     */
+    private Node setOperation(SetOperation operation, Node source, Node other, LongAdder matched) {
+        if (Objects.isNull(other)) {
+            return operation == SetOperation.INTERSECTION ? null : source;
+        }
+        if (Objects.isNull(source)) {
+            return operation == SetOperation.UNION ? copy(other) : null;
+        }
+        SplitResult split = split(source, other.data);
+        Node left = setOperation(operation, split.left, other.left, matched);
+        Node right = setOperation(operation, split.right, other.right, matched);
+        return combine(operation, left, split.found, other, right, matched);
+    }
+
+    /**
+     * 合并左右两边的运算结果，found 是本树里和 other 根节点相等的节点，不存在为 null
+     */
+    private Node combine(SetOperation operation, Node left, Node found, Node other, Node right, LongAdder matched) {
+        if (Objects.nonNull(found)) {
+            matched.increment();
+        }
+        switch (operation) {
+            case UNION:
+                return join(left, Objects.nonNull(found) ? found : new Node(other.data), right);
+            case INTERSECTION:
+                return Objects.nonNull(found) ? join(left, found, right) : join2(left, right);
+            default:
+                return join2(left, right);
+        }
     }
 
     /**
-     * 沿着驱动节点一直平衡到 root 节点
+     * 复制一棵只读子树
+     *
+     * @param source
+     * @return
+     */
+    private Node copy(Node source) {
+        if (Objects.isNull(source)) {
+            return null;
+        }
+        return link(new Node(source.data), copy(source.left), copy(source.right));
+    }
+
+    /**
+     * 切分结果：小于 key 的子树、等于 key 的节点、大于 key 的子树
+     */
+    private class SplitResult {
+        private final Node left;
+        private final Node found;
+        private final Node right;
+
+        private SplitResult(Node left, Node found, Node right) {
+            this.left = left;
+            this.found = found;
+            this.right = right;
+        }
+    }
+
+    /**
+     * 按 key 切分子树，复杂度 O(log n)
+     *
+     * @param node
+     * @param key
+     * @return
+     */
+    private SplitResult split(Node node, E key) {
+        if (Objects.isNull(node)) {
+            return new SplitResult(null, null, null);
+        }
+        Node left = node.left;
+        Node right = node.right;
+        int cmp = key.compareTo(node.data);
+        if (cmp == 0) {
+            return new SplitResult(left, node, right);
+        } else if (cmp < 0) {
+            SplitResult split = split(left, key);
+            return new SplitResult(split.left, split.found, join(split.right, node, right));
+        } else {
+            SplitResult split = split(right, key);
+            return new SplitResult(join(left, node, split.left), split.found, split.right);
+        }
+    }
+
+    /**
+     * 以 key 节点连接两棵子树，left 的数据都小于 key，right 的数据都大于 key
+     *
+     * @return 连接后的子树根节点，父节点指针由调用方负责
+     */
+    private Node join(Node left, Node key, Node right) {
+        int hL = heightOf(left);
+        int hR = heightOf(right);
+        if (hL > hR + 1) {
+            return joinRight(left, key, right);
+        }
+        if (hR > hL + 1) {
+            return joinLeft(left, key, right);
+        }
+        return link(key, left, right);
+    }
+
+    /**
+     * 左边比较高：沿着左子树的右侧往下找到和右子树高度相当的位置挂上去，回溯时旋转保持平衡
+     */
+    private Node joinRight(Node left, Node key, Node right) {
+        Node l = left.left;
+        Node c = left.right;
+        if (heightOf(c) <= heightOf(right) + 1) {
+            Node joined = link(key, c, right);
+            if (joined.height <= heightOf(l) + 1) {
+                return link(left, l, joined);
+            }
+            return rotateLeft(link(left, l, rotateRight(joined)));
+        }
+        Node joined = joinRight(c, key, right);
+        Node result = link(left, l, joined);
+        if (joined.height <= heightOf(l) + 1) {
+            return result;
+        }
+        return rotateLeft(result);
+    }
+
+    /**
+     * 右边比较高：和 joinRight 对称
+     */
+    private Node joinLeft(Node left, Node key, Node right) {
+        Node c = right.left;
+        Node r = right.right;
+        if (heightOf(c) <= heightOf(left) + 1) {
+            Node joined = link(key, left, c);
+            if (joined.height <= heightOf(r) + 1) {
+                return link(right, joined, r);
+            }
+            return rotateRight(link(right, rotateLeft(joined), r));
+        }
+        Node joined = joinLeft(left, key, c);
+        Node result = link(right, joined, r);
+        if (joined.height <= heightOf(r) + 1) {
+            return result;
+        }
+        return rotateRight(result);
+    }
+
+    /**
+     * 连接两棵子树，left 的数据都小于 right 的数据，把 left 的最大节点摘下来作为连接节点
+     */
+    private Node join2(Node left, Node right) {
+        if (Objects.isNull(left)) {
+            return right;
+        }
+        if (Objects.isNull(right)) {
+            return left;
+        }
+        SplitResult last = splitLast(left);
+        return join(last.left, last.found, right);
+    }
+
+    /**
+     * 摘下子树的最大节点
+     *
+     * @return left 为剩下的子树，found 为最大节点
+     */
+    private SplitResult splitLast(Node node) {
+        if (Objects.isNull(node.right)) {
+            return new SplitResult(node.left, node, null);
+        }
+        SplitResult last = splitLast(node.right);
+        return new SplitResult(join(node.left, node, last.left), last.found, null);
+    }
+
+    /**
+     * 游离子树上的左旋，不会修改 root
+     */
+    private Node rotateLeft(Node node) {
+        Node r = node.right;
+        link(node, node.left, r.left);
+        return link(r, node, r.right);
+    }
+
+    /**
+     * 游离子树上的右旋，不会修改 root
+     */
+    private Node rotateRight(Node node) {
+        Node l = node.left;
+        link(node, l.right, node.right);
+        return link(l, l.left, node);
+    }
+
+    /**
+     * 把左右子树挂到节点上并重新计算高度、平衡因子和子树节点个数
+     */
+    private Node link(Node node, Node left, Node right) {
+        node.left = left;
+        node.right = right;
+        if (Objects.nonNull(left)) {
+            left.parent = node;
+        }
+        if (Objects.nonNull(right)) {
+            right.parent = node;
+        }
+        node.height = calculateHeight(node);
+        node.balanceFactor = calculateBalanceFactor(node);
+        node.size = calculateSize(node);
+        return node;
+    }
+
+    private int heightOf(Node node) {
+        return Objects.isNull(node) ? 0 : node.height;
+    }
+
+    /**
+     * 把一棵游离子树设置为整棵树的根节点
+     */
+    private void mountRoot(Node node) {
+        this.root = node;
+        if (Objects.nonNull(node)) {
+            node.parent = null;
+        }
+        modCount++;
+        if (listening) {
+            fireRebuilt();
+        }
+    }
+
+    /**
+     * 清空整棵树
+     */
+    private void clear() {
+        this.root = null;
+        this.size = 0;
+        modCount++;
+        if (listening) {
+            fireRebuilt();
+        }
+    }
+
+    private int sizeOf(Node node) {
+        return Objects.isNull(node) ? 0 : node.size;
+    }
+
+    /**
+     * 计算子树节点个数
+     *
+     * @param node
+     * @return
+     */
+    private int calculateSize(Node node) {
+        return sizeOf(node.left) + sizeOf(node.right) + 1;
+    }
+
+    /**
+     * 从指定节点开始一直到 root 节点，每个节点的子树节点个数都加上 delta
+     *
+     * @param from
+     * @param delta
+     */
+    private void resizeUpward(Node from, int delta) {
+        for (Node node = from; Objects.nonNull(node); node = node.parent) {
+            node.size += delta;
+        }
+    }
+
+    /**
+     * 从驱动节点开始向上平衡，驱动节点是结构发生变化的那个节点（新节点挂载的节点或者被删节点的父节点），
+     * 每个祖先节点重新计算完高度（必要时旋转）之后，若这棵子树的高度和变化之前一样，
+     * 那么再往上的祖先的高度和平衡因子都不会变，可以提前结束，不必一路走到 root 节点，
+     * 插入时一次旋转就能把子树高度恢复到插入之前，所以插入最多旋转一次就会停下，
+     * 删除时旋转后高度可能仍然减少，那就继续往上走
      *
      * @param driver
      */
     private void reBalance(Node driver) {
         Node reBalance = driver;
-        do {
+        int visits = 0;
+        while (Objects.nonNull(reBalance)) {
+            visits++;
+            int oldHeight = reBalance.height;
             // 重新计算平衡因子和高度
             reCalculateBalanceFactorAndHeight(reBalance);
-            // 旋转至平衡
-            rotate2Balance(reBalance);
-            reBalance = reBalance.parent;
-        } while (Objects.nonNull(reBalance));
+            // 旋转至平衡，拿到这棵子树新的根节点
+            Node subtreeRoot = rotate2Balance(reBalance);
+            if (subtreeRoot.height == oldHeight) {
+                break;
+            }
+            reBalance = subtreeRoot.parent;
+        }
+        this.lastReBalanceVisits = visits;
+        this.reBalanceVisits += visits;
+        this.reBalanceOperations++;
     }
 
     /**
      * 旋转至平衡
+     *
+     * @return 旋转后这棵子树的根节点，无需旋转就是节点本身
      */
-    private void rotate2Balance(Node rotate) {
-        log.debug("节点 [" + rotate.data + "] recalculate BF: " + rotate.balanceFactor + " recalculate HG: " + rotate.height);
+    private Node rotate2Balance(Node rotate) {
         if (CalculatorHelper.abs(rotate.balanceFactor) < 2) {
-            log.debug("节点 [" + rotate.data + "] 已平衡，无需旋转");
-            return;
+            return rotate;
         }
-        log.debug("节点 [" + rotate.data + "] 不平衡，开始旋转");
         RotateType rotateType = rotateType(rotate);
         switch (rotateType) {
             case R:
-                rightRotate(rotate);
-                break;
+                return rightRotate(rotate);
             case L:
-                leftRotate(rotate);
-                break;
+                return leftRotate(rotate);
             case CLR:
                 leftRotate(rotate.left);
-                rightRotate(rotate);
-                break;
+                return rightRotate(rotate);
             case CRL:
                 rightRotate(rotate.right);
-                leftRotate(rotate);
-                break;
+                return leftRotate(rotate);
             default:
-                break;
+                return rotate;
         }
     }
 
@@ -433,11 +1526,17 @@ public class BalanceBinarySearchTree<E extends Comparable> {
 
         node.height = calculateHeight(node);
         node.balanceFactor = calculateBalanceFactor(node);
+        node.size = calculateSize(node);
 
         ndL.height = calculateHeight(ndL);
         ndL.balanceFactor = calculateBalanceFactor(ndL);
-        log.debug("[" + node.data + "] 节点右旋完毕，新节点[" + ndL.data + "]平衡因子：" + ndL.balanceFactor);
-        log.debug("[" + node.data + "] 节点右旋完毕，新节点[" + ndL.data + "]高度：" + ndL.height);
+        ndL.size = calculateSize(ndL);
+        if (tracing) {
+            tracer.rotated(node, ndL, true);
+        }
+        if (listening) {
+            fireRestructured(ndL);
+        }
         return ndL;
     }
 
@@ -474,11 +1573,17 @@ public class BalanceBinarySearchTree<E extends Comparable> {
 
         node.height = calculateHeight(node);
         node.balanceFactor = calculateBalanceFactor(node);
+        node.size = calculateSize(node);
 
         ndR.height = calculateHeight(ndR);
         ndR.balanceFactor = calculateBalanceFactor(ndR);
-        log.debug("[" + node.data + "] 节点左旋完毕，新节点[" + ndR.data + "]平衡因子：" + ndR.balanceFactor);
-        log.debug("[" + node.data + "] 节点左旋完毕，新节点[" + ndR.data + "]高度：" + ndR.height);
+        ndR.size = calculateSize(ndR);
+        if (tracing) {
+            tracer.rotated(node, ndR, false);
+        }
+        if (listening) {
+            fireRestructured(ndR);
+        }
         return ndR;
     }
 
@@ -519,6 +1624,11 @@ public class BalanceBinarySearchTree<E extends Comparable> {
             mount.left = newNode;
         }
         newNode.parent = mount;
+        resizeUpward(mount, newNode.size);
+        modCount++;
+        if (listening) {
+            fireRestructured(newNode);
+        }
     }
 
     /**
@@ -529,18 +1639,19 @@ public class BalanceBinarySearchTree<E extends Comparable> {
      * @return
      */
     public Node searchAndMount(Node newNode, Node mount) {
-        // 如果新节点比当前搜寻的节点小，那么将当前搜寻节点的右节点赋给下一搜寻节点，
-        // 如果新节点比当前搜寻的节点大（或者相等）,那么将当前搜寻节点的左节点赋给下一搜寻节点
-        boolean smaller = newNode.data.compareTo(mount.data) < 0;
-        Node next = smaller ? mount.left : mount.right;
-        // 如果下一搜寻节点为空，则代表搜寻到边际节点了
-        if (Objects.isNull(next)) {
-            // 将新节点挂载到指定节点上
-            add(newNode, mount);
-            return mount;
-        } else {
+        while (true) {
+            // 如果新节点比当前搜寻的节点小，那么将当前搜寻节点的右节点赋给下一搜寻节点，
+            // 如果新节点比当前搜寻的节点大（或者相等）,那么将当前搜寻节点的左节点赋给下一搜寻节点
+            boolean smaller = newNode.data.compareTo(mount.data) < 0;
+            Node next = smaller ? mount.left : mount.right;
+            // 如果下一搜寻节点为空，则代表搜寻到边际节点了
+            if (Objects.isNull(next)) {
+                // 将新节点挂载到指定节点上
+                add(newNode, mount);
+                return mount;
+            }
             // 如果下一搜寻节点不为空，则代表还可以继续搜寻
-            return searchAndMount(newNode, next);
+            mount = next;
         }
     }
 
@@ -550,7 +1661,9 @@ public class BalanceBinarySearchTree<E extends Comparable> {
     private void reCalculateBalanceFactorAndHeight(Node node) {
         node.height = calculateHeight(node);
         node.balanceFactor = calculateBalanceFactor(node);
-        log.debug("节点 [" + node.data + "] recalculate BF: " + node.balanceFactor + " recalculate HG: " + node.height);
+        if (tracing) {
+            tracer.reCalculated(node, node.balanceFactor, node.height);
+        }
     }
 
 }
@@ -0,0 +1,314 @@
+package com.kilobytech.treeprinter.tree;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * @author huangtao
+ * @Title: Canvas
+ * @Description: 打印容器，所有行首尾相接放在一维数组里，比起 char[行数][宽度]，少了每行一个数组对象的开销，
+ * 填空格、清空一块区域都是一次 {@link Arrays#fill} 就能搞定，
+ * 标签都是 Latin-1 字符（整数、字母、"/"、"\\"、"^"、"_" 都是）时每个格子只占一个字节，内存减半，
+ * 写到通道时直接包装数组，不需要再复制一遍，
+ * 标签里有 Latin-1 以外的字符时退回到每个格子两个字节的 char 数组，打印结果不变，
+ * 格子总数用 long 计算，超过一个数组的上限时按整行切成多块，一行不会跨两块，
+ * 分配之前先估算需要的字节数，超出可用的堆内存就直接失败，而不是分配到一半内存溢出
+ * @date 2020/8/14
+ */
+abstract class Canvas {
+
+    // 一个数组最多能放多少个格子，再多一点有的虚拟机就分配不出来了，一行也必须放在一个数组里，所以这也是宽度的上限
+    static final int MAX_CELLS = Integer.MAX_VALUE - 8;
+
+    // 每块默认最多放多少个格子
+    static final int CHUNK_CELLS = 1 << 30;
+
+    private static final byte[] LINE_BREAK = {'\n'};
+
+    // 行数
+    final int rows;
+
+    // 每行的列数
+    final int width;
+
+    // 是否每个格子只占一个字节，只能写 Latin-1 字符
+    final boolean latin1;
+
+    // 每块的行数，第 row 行在第 row / rowsPerChunk 块里
+    final int rowsPerChunk;
+
+    private Canvas(int rows, int width, boolean latin1, int rowsPerChunk) {
+        this.rows = rows;
+        this.width = width;
+        this.latin1 = latin1;
+        this.rowsPerChunk = rowsPerChunk;
+    }
+
+    /**
+     * 分配一块画布，内容还没有初始化，需要调用 {@link #clear(int, int)} 填空格
+     *
+     * @param rows
+     * @param width
+     * @param latin1 所有要写的字符是否都在 Latin-1 范围内
+     * @return
+     */
+    static Canvas allocate(int rows, int width, boolean latin1) {
+        return allocate(rows, width, latin1, CHUNK_CELLS);
+    }
+
+    /**
+     * 同 {@link #allocate(int, int, boolean)}，每块最多放 chunkCells 个格子（至少放一整行）
+     */
+    static Canvas allocate(int rows, int width, boolean latin1, int chunkCells) {
+        if (width > MAX_CELLS) {
+            throw new IllegalStateException("画布宽度 " + width + " 列超出单个数组的上限 " + MAX_CELLS);
+        }
+        long bytes = bytes(rows, width, latin1);
+        long available = availableBytes();
+        if (bytes > available) {
+            throw new IllegalStateException("画布 " + rows + " 行 x " + width + " 列需要约 " + megabytes(bytes)
+                    + " MB，当前可用的堆内存约 " + megabytes(available) + " MB");
+        }
+        int rowsPerChunk = Math.max(1, Math.min(rows, chunkCells / Math.max(1, width)));
+        return latin1 ? new ByteCanvas(rows, width, rowsPerChunk) : new CharCanvas(rows, width, rowsPerChunk);
+    }
+
+    /**
+     * rows 行 x width 列的画布需要的字节数
+     */
+    static long bytes(long rows, long width, boolean latin1) {
+        return rows * width * (latin1 ? 1 : 2);
+    }
+
+    /**
+     * 估算还能分配多少堆内存：最大堆减去上次垃圾回收之后还活着的对象，
+     * 不直接用 {@link Runtime#freeMemory()}，因为还没回收的垃圾也算在已用里面，小画布也可能被误判为放不下
+     */
+    static long availableBytes() {
+        long live = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            MemoryUsage usage = pool.getType() == MemoryType.HEAP ? pool.getCollectionUsage() : null;
+            if (Objects.nonNull(usage)) {
+                live += usage.getUsed();
+            }
+        }
+        return Runtime.getRuntime().maxMemory() - live;
+    }
+
+    static long megabytes(long bytes) {
+        return (bytes + (1 << 20) - 1) >> 20;
+    }
+
+    /**
+     * 格子总数
+     */
+    long cells() {
+        return (long) this.rows * this.width;
+    }
+
+    /**
+     * 第 row 行所在的块
+     */
+    int chunk(int row) {
+        return row / this.rowsPerChunk;
+    }
+
+    /**
+     * 第 row 行第 col 列在所在块里的下标
+     */
+    int index(int row, int col) {
+        return row % this.rowsPerChunk * this.width + col;
+    }
+
+    /**
+     * 第 chunk 块的行数，最后一块可能不满
+     */
+    int chunkRows(int chunk) {
+        return (int) Math.min(this.rowsPerChunk, this.rows - (long) chunk * this.rowsPerChunk);
+    }
+
+    int chunkCount() {
+        return (this.rows + this.rowsPerChunk - 1) / this.rowsPerChunk;
+    }
+
+    /**
+     * 把 [rowFrom, rowTo) 这些行填满空格，跨块时每块填一次
+     */
+    void clear(int rowFrom, int rowTo) {
+        int row = rowFrom;
+        while (row < rowTo) {
+            int chunk = chunk(row);
+            int end = (int) Math.min(rowTo, (long) (chunk + 1) * this.rowsPerChunk);
+            fillChunk(chunk, index(row, 0), index(end - 1, 0) + this.width, ' ');
+            row = end;
+        }
+    }
+
+    /**
+     * 把第 row 行 [colFrom, colTo) 这些列填成 c
+     */
+    void fill(int row, int colFrom, int colTo, char c) {
+        fillChunk(chunk(row), index(row, colFrom), index(row, colTo), c);
+    }
+
+    /**
+     * 把第 chunk 块里 [from, to) 这些下标填成 c
+     */
+    abstract void fillChunk(int chunk, int from, int to, char c);
+
+    abstract void put(int row, int col, char c);
+
+    /**
+     * 从第 row 行第 col 列开始写入一整块字符
+     */
+    abstract void put(int row, int col, char[] block);
+
+    /**
+     * 第 row 行的内容
+     */
+    abstract String row(int row);
+
+    /**
+     * 把第 row 行追加到 builder 后面
+     */
+    abstract void appendRow(StringBuilder builder, int row);
+
+    /**
+     * 按 UTF-8 编码写出整块画布，每行以换行符结尾
+     */
+    abstract void write(WritableByteChannel out) throws IOException;
+
+    static void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * 每个格子一个字节的画布，只能写 Latin-1 字符
+     */
+    private static final class ByteCanvas extends Canvas {
+
+        private final byte[][] chunks;
+
+        private ByteCanvas(int rows, int width, int rowsPerChunk) {
+            super(rows, width, true, rowsPerChunk);
+            this.chunks = new byte[chunkCount()][];
+            for (int i = 0; i < this.chunks.length; i++) {
+                this.chunks[i] = new byte[chunkRows(i) * width];
+            }
+        }
+
+        @Override
+        void fillChunk(int chunk, int from, int to, char c) {
+            Arrays.fill(this.chunks[chunk], from, to, (byte) c);
+        }
+
+        @Override
+        void put(int row, int col, char c) {
+            this.chunks[chunk(row)][index(row, col)] = (byte) c;
+        }
+
+        @Override
+        void put(int row, int col, char[] block) {
+            byte[] cells = this.chunks[chunk(row)];
+            int base = index(row, col);
+            for (int i = 0; i < block.length; i++) {
+                cells[base + i] = (byte) block[i];
+            }
+        }
+
+        @Override
+        String row(int row) {
+            return new String(this.chunks[chunk(row)], index(row, 0), this.width, StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        void appendRow(StringBuilder builder, int row) {
+            byte[] cells = this.chunks[chunk(row)];
+            int base = index(row, 0);
+            for (int i = 0; i < this.width; i++) {
+                builder.append((char) (cells[base + i] & 0xFF));
+            }
+        }
+
+        /**
+         * 只有 ASCII 字符的行直接包装数组写出去，有 128 到 255 之间字符的行还要再编码成 UTF-8
+         */
+        @Override
+        void write(WritableByteChannel out) throws IOException {
+            for (int row = 0; row < this.rows; row++) {
+                byte[] cells = this.chunks[chunk(row)];
+                int base = index(row, 0);
+                boolean ascii = true;
+                for (int i = base; i < base + this.width && ascii; i++) {
+                    ascii = cells[i] >= 0;
+                }
+                if (ascii) {
+                    writeFully(out, ByteBuffer.wrap(cells, base, this.width));
+                } else {
+                    writeFully(out, StandardCharsets.UTF_8.encode(row(row)));
+                }
+                writeFully(out, ByteBuffer.wrap(LINE_BREAK));
+            }
+        }
+    }
+
+    /**
+     * 每个格子两个字节的画布，标签里有 Latin-1 以外的字符时使用
+     */
+    private static final class CharCanvas extends Canvas {
+
+        private final char[][] chunks;
+
+        private CharCanvas(int rows, int width, int rowsPerChunk) {
+            super(rows, width, false, rowsPerChunk);
+            this.chunks = new char[chunkCount()][];
+            for (int i = 0; i < this.chunks.length; i++) {
+                this.chunks[i] = new char[chunkRows(i) * width];
+            }
+        }
+
+        @Override
+        void fillChunk(int chunk, int from, int to, char c) {
+            Arrays.fill(this.chunks[chunk], from, to, c);
+        }
+
+        @Override
+        void put(int row, int col, char c) {
+            this.chunks[chunk(row)][index(row, col)] = c;
+        }
+
+        @Override
+        void put(int row, int col, char[] block) {
+            System.arraycopy(block, 0, this.chunks[chunk(row)], index(row, col), block.length);
+        }
+
+        @Override
+        String row(int row) {
+            return new String(this.chunks[chunk(row)], index(row, 0), this.width);
+        }
+
+        @Override
+        void appendRow(StringBuilder builder, int row) {
+            builder.append(this.chunks[chunk(row)], index(row, 0), this.width);
+        }
+
+        @Override
+        void write(WritableByteChannel out) throws IOException {
+            for (int row = 0; row < this.rows; row++) {
+                writeFully(out, StandardCharsets.UTF_8.encode(CharBuffer.wrap(this.chunks[chunk(row)], index(row, 0), this.width)));
+                writeFully(out, ByteBuffer.wrap(LINE_BREAK));
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.kilobytech.treeprinter.tree;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+
+/**
+ * @author huangtao
+ * @Title: ConcurrentBalanceBinarySearchTree
+ * @Description: 可被多个线程共享的平衡二叉搜索树
+ * 内部就是一棵 {@link BalanceBinarySearchTree}，由一把 {@link StampedLock} 保护：
+ * 1.查询走乐观读，不加锁直接从根节点往下走，走完再校验这期间有没有写操作发生（版本号是否变化），
+ *   没变化结果就是可信的，读线程之间不会互相争抢同一个缓存行，所以读吞吐能随着核数增长；
+ *   若校验失败，或者读到了写了一半的节点，就退化成加读锁再查一次
+ * 2.插入、删除以及旋转都在写锁内完成，写写互斥，写的时候乐观读会校验失败而重试
+ * @date 2020/8/4
+ */
+public class ConcurrentBalanceBinarySearchTree<E extends Comparable> {
+
+    /**
+     * 乐观读最多往下走的步数，AVL 树的高度不超过 1.44 * log2(n + 2)，int 范围内的节点个数对应的高度不会超过 64，
+     * 超出这个步数说明读到了旋转到一半的指针，直接放弃乐观读
+     */
+    private static final int MAX_OPTIMISTIC_STEPS = 64;
+
+    // 乐观读的三种结果
+    private static final int NOT_FOUND = 0;
+    private static final int FOUND = 1;
+    private static final int UNKNOWN = -1;
+
+    private final BalanceBinarySearchTree<E> tree = new BalanceBinarySearchTree<>();
+
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * 是否包含指定数据
+     *
+     * @param data
+     * @return
+     */
+    public boolean contains(E data) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0L) {
+            int result = boundedSearch(data);
+            if (result != UNKNOWN && lock.validate(stamp)) {
+                return result == FOUND;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return boundedSearch(data) == FOUND;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * 从根节点往下搜索，乐观读时可能读到空数据或者走不到头，这两种情况返回 UNKNOWN
+     *
+     * @param data
+     * @return
+     */
+    private int boundedSearch(E data) {
+        BalanceBinarySearchTree<E>.Node current = tree.getRoot();
+        for (int steps = 0; steps < MAX_OPTIMISTIC_STEPS; steps++) {
+            if (Objects.isNull(current)) {
+                return NOT_FOUND;
+            }
+            E currentData = current.getData();
+            if (Objects.isNull(currentData)) {
+                return UNKNOWN;
+            }
+            int cmp = data.compareTo(currentData);
+            if (cmp == 0) {
+                return FOUND;
+            }
+            current = cmp < 0 ? current.getLeft() : current.getRight();
+        }
+        return UNKNOWN;
+    }
+
+    public int getSize() {
+        long stamp = lock.tryOptimisticRead();
+        int size = tree.getSize();
+        if (lock.validate(stamp)) {
+            return size;
+        }
+        stamp = lock.readLock();
+        try {
+            return tree.getSize();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * 插入新值
+     *
+     * @param data
+     * @return
+     */
+    public boolean insert(E data) {
+        long stamp = lock.writeLock();
+        try {
+            return tree.insert(data);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 删除数据
+     *
+     * @param data
+     * @return
+     */
+    public boolean delete(E data) {
+        long stamp = lock.writeLock();
+        try {
+            return tree.delete(data);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 批量加载数据
+     *
+     * @param data
+     * @return 实际新增的节点个数
+     */
+    public int bulkLoad(Collection<? extends E> data) {
+        long stamp = lock.writeLock();
+        try {
+            return tree.bulkLoad(data);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 在读锁内访问整棵树，比如校验或者构建 {@link PrintableTree}，
+     * reader 不能修改树，也不能把节点引用带出读锁之外使用
+     *
+     * @param reader
+     * @param <R>
+     * @return
+     */
+    public <R> R read(Function<BalanceBinarySearchTree<E>, R> reader) {
+        long stamp = lock.readLock();
+        try {
+            return reader.apply(tree);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+}
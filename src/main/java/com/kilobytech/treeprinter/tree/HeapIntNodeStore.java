@@ -0,0 +1,111 @@
+package com.kilobytech.treeprinter.tree;
+
+import java.util.Arrays;
+
+/**
+ * @author huangtao
+ * @Title: HeapIntNodeStore
+ * @Description: 堆内节点存储，用几个平行的 int 数组存放节点的各个字段，同一个下标就是同一个节点
+ * @date 2020/8/3
+ */
+public class HeapIntNodeStore implements IntNodeStore {
+
+    // 节点数据
+    private int[] keys;
+    // 左子节点下标
+    private int[] left;
+    // 右子节点下标
+    private int[] right;
+    // 父节点下标
+    private int[] parent;
+    // 高度
+    private int[] height;
+
+    public HeapIntNodeStore(int initialCapacity) {
+        if (initialCapacity < 1) {
+            throw new IllegalArgumentException("初始容量必须大于 0");
+        }
+        this.keys = new int[initialCapacity];
+        this.left = new int[initialCapacity];
+        this.right = new int[initialCapacity];
+        this.parent = new int[initialCapacity];
+        this.height = new int[initialCapacity];
+    }
+
+    @Override
+    public int getKey(int node) {
+        return keys[node];
+    }
+
+    @Override
+    public void setKey(int node, int key) {
+        keys[node] = key;
+    }
+
+    @Override
+    public int getLeft(int node) {
+        return left[node];
+    }
+
+    @Override
+    public void setLeft(int node, int left) {
+        this.left[node] = left;
+    }
+
+    @Override
+    public int getRight(int node) {
+        return right[node];
+    }
+
+    @Override
+    public void setRight(int node, int right) {
+        this.right[node] = right;
+    }
+
+    @Override
+    public int getParent(int node) {
+        return parent[node];
+    }
+
+    @Override
+    public void setParent(int node, int parent) {
+        this.parent[node] = parent;
+    }
+
+    @Override
+    public int getHeight(int node) {
+        return height[node];
+    }
+
+    @Override
+    public void setHeight(int node, int height) {
+        this.height[node] = height;
+    }
+
+    @Override
+    public int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * 至少 1.5 倍扩容
+     *
+     * @param minCapacity
+     */
+    @Override
+    public void ensureCapacity(int minCapacity) {
+        if (minCapacity <= keys.length) {
+            return;
+        }
+        int capacity = keys.length + (keys.length >> 1) + 1;
+        if (capacity < 0) {
+            capacity = Integer.MAX_VALUE - 8;
+        }
+        capacity = Math.max(capacity, minCapacity);
+        keys = Arrays.copyOf(keys, capacity);
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        height = Arrays.copyOf(height, capacity);
+    }
+}
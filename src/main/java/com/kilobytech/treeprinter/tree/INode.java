@@ -38,6 +38,28 @@ public interface INode<E extends Comparable> {
      */
     INode<E> getRight();
 
+    /**
+     * 获取以本节点为根的子树高度，默认向下递归计算，
+     * 自己维护了高度的实现（比如平衡二叉树）应该覆盖这个方法
+     *
+     * @return height
+     */
+    default int getHeight() {
+        int hL = Objects.isNull(getLeft()) ? 0 : getLeft().getHeight();
+        int hR = Objects.isNull(getRight()) ? 0 : getRight().getHeight();
+        return Math.max(hL, hR) + 1;
+    }
+
+    /**
+     * 获取以本节点为根的子树节点个数，默认返回 -1 表示没有维护，
+     * 打印时不会为了这个值去遍历子树，维护了子树大小的实现（比如平衡二叉树）应该覆盖这个方法
+     *
+     * @return size
+     */
+    default int getSize() {
+        return -1;
+    }
+
     /**
      * 从本节点开始向上递归计算深度
      *
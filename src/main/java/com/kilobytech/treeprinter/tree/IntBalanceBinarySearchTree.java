@@ -0,0 +1,412 @@
+package com.kilobytech.treeprinter.tree;
+
+import java.io.Closeable;
+
+/**
+ * @author huangtao
+ * @Title: IntBalanceBinarySearchTree
+ * @Description: int 特化的平衡二叉搜索树
+ * 和 {@link BalanceBinarySearchTree} 的插入、删除、搜索语义完全一致，区别在于节点不再是对象，
+ * 而是节点存储 {@link IntNodeStore} 里的一个槽位下标，槽位里存放 key、left、right、parent、height，
+ * 数据不用装箱，比较不走 compareTo，每个节点也没有对象头和外部类引用，
+ * 被删除节点的下标会通过 left 字段串成一条空闲链表，下次插入时优先复用，
+ * 默认使用堆内的平行数组存储 {@link HeapIntNodeStore}，节点特别多时可以换成堆外存储 {@link OffHeapIntNodeStore}
+ * @date 2020/8/2
+ */
+public class IntBalanceBinarySearchTree implements Closeable {
+
+    // 空节点下标
+    public static final int NIL = -1;
+
+    // 节点存储
+    private final IntNodeStore store;
+
+    // 树的根节点下标
+    private int root = NIL;
+
+    // 数据节点个数
+    private int size;
+
+    // 从未使用过的第一个下标
+    private int allocated;
+
+    // 空闲链表的表头，被删除的节点通过 left 字段串起来
+    private int freeHead = NIL;
+
+    public IntBalanceBinarySearchTree() {
+        this(16);
+    }
+
+    public IntBalanceBinarySearchTree(int initialCapacity) {
+        this(new HeapIntNodeStore(initialCapacity));
+    }
+
+    public IntBalanceBinarySearchTree(IntNodeStore store) {
+        this.store = store;
+    }
+
+    public int getRoot() {
+        return root;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getKey(int node) {
+        return store.getKey(node);
+    }
+
+    public int getLeft(int node) {
+        return store.getLeft(node);
+    }
+
+    public int getRight(int node) {
+        return store.getRight(node);
+    }
+
+    public int getParent(int node) {
+        return store.getParent(node);
+    }
+
+    public int getHeight(int node) {
+        return node == NIL ? 0 : store.getHeight(node);
+    }
+
+    /**
+     * 平衡因子 = 左子树高度 - 右子树高度，不单独存储，用的时候现算
+     *
+     * @param node
+     * @return
+     */
+    public int getBalanceFactor(int node) {
+        return getHeight(store.getLeft(node)) - getHeight(store.getRight(node));
+    }
+
+    /**
+     * 搜索
+     *
+     * @param key
+     * @return 节点下标，未找到返回 {@link #NIL}
+     */
+    public int search(int key) {
+        int current = root;
+        while (current != NIL) {
+            int k = store.getKey(current);
+            if (key < k) {
+                current = store.getLeft(current);
+            } else if (key > k) {
+                current = store.getRight(current);
+            } else {
+                return current;
+            }
+        }
+        return NIL;
+    }
+
+    public boolean contains(int key) {
+        return search(key) != NIL;
+    }
+
+    /**
+     * 插入新值，一次下降同时完成查重和寻找挂载点
+     *
+     * @param key
+     * @return
+     */
+    public boolean insert(int key) {
+        if (root == NIL) {
+            root = allocate(key, NIL);
+            size++;
+            return true;
+        }
+        int mount = root;
+        boolean smaller;
+        while (true) {
+            int k = store.getKey(mount);
+            int next;
+            if (key < k) {
+                smaller = true;
+                next = store.getLeft(mount);
+            } else if (key > k) {
+                smaller = false;
+                next = store.getRight(mount);
+            } else {
+                return false;
+            }
+            if (next == NIL) {
+                break;
+            }
+            mount = next;
+        }
+        int newNode = allocate(key, mount);
+        if (smaller) {
+            store.setLeft(mount, newNode);
+        } else {
+            store.setRight(mount, newNode);
+        }
+        size++;
+        reBalance(mount);
+        return true;
+    }
+
+    /**
+     * 删除数据
+     *
+     * @param key
+     * @return
+     */
+    public boolean delete(int key) {
+        int delete = search(key);
+        if (delete == NIL) {
+            return false;
+        }
+        if (store.getLeft(delete) != NIL && store.getRight(delete) != NIL) {
+            // 既有左节点，又有右节点，和 BalanceBinarySearchTree 一样，
+            // 平衡因子不小于 0 就找左子树最大值，否则找右子树最小值，交换数据后转而删除它
+            int replace;
+            if (getBalanceFactor(delete) >= 0) {
+                replace = store.getLeft(delete);
+                while (store.getRight(replace) != NIL) {
+                    replace = store.getRight(replace);
+                }
+            } else {
+                replace = store.getRight(delete);
+                while (store.getLeft(replace) != NIL) {
+                    replace = store.getLeft(replace);
+                }
+            }
+            store.setKey(delete, store.getKey(replace));
+            delete = replace;
+        }
+        int p = store.getParent(delete);
+        int child = store.getLeft(delete) != NIL ? store.getLeft(delete) : store.getRight(delete);
+        if (child != NIL) {
+            store.setParent(child, p);
+        }
+        if (p == NIL) {
+            root = child;
+        } else if (store.getLeft(p) == delete) {
+            store.setLeft(p, child);
+        } else {
+            store.setRight(p, child);
+        }
+        release(delete);
+        size--;
+        if (p != NIL) {
+            reBalance(p);
+        }
+        return true;
+    }
+
+    /**
+     * 从驱动节点开始向上平衡，子树高度和变化之前一样时提前结束，
+     * 和 {@link BalanceBinarySearchTree} 的平衡过程一致
+     *
+     * @param driver
+     */
+    private void reBalance(int driver) {
+        int node = driver;
+        while (node != NIL) {
+            int oldHeight = store.getHeight(node);
+            store.setHeight(node, calculateHeight(node));
+            int bf = getBalanceFactor(node);
+            if (bf > 1) {
+                if (getBalanceFactor(store.getLeft(node)) < 0) {
+                    leftRotate(store.getLeft(node));
+                }
+                node = rightRotate(node);
+            } else if (bf < -1) {
+                if (getBalanceFactor(store.getRight(node)) > 0) {
+                    rightRotate(store.getRight(node));
+                }
+                node = leftRotate(node);
+            }
+            if (store.getHeight(node) == oldHeight) {
+                break;
+            }
+            node = store.getParent(node);
+        }
+    }
+
+    /**
+     * 右旋
+     *
+     * @param node
+     * @return 旋转后的子树根节点
+     */
+    private int rightRotate(int node) {
+        int ndL = store.getLeft(node);
+        int ndP = store.getParent(node);
+        int ndLR = store.getRight(ndL);
+
+        store.setLeft(node, ndLR);
+        if (ndLR != NIL) {
+            store.setParent(ndLR, node);
+        }
+
+        store.setRight(ndL, node);
+        store.setParent(node, ndL);
+
+        replaceChild(ndP, node, ndL);
+
+        store.setHeight(node, calculateHeight(node));
+        store.setHeight(ndL, calculateHeight(ndL));
+        return ndL;
+    }
+
+    /**
+     * 左旋
+     *
+     * @param node
+     * @return 旋转后的子树根节点
+     */
+    private int leftRotate(int node) {
+        int ndR = store.getRight(node);
+        int ndP = store.getParent(node);
+        int ndRL = store.getLeft(ndR);
+
+        store.setRight(node, ndRL);
+        if (ndRL != NIL) {
+            store.setParent(ndRL, node);
+        }
+
+        store.setLeft(ndR, node);
+        store.setParent(node, ndR);
+
+        replaceChild(ndP, node, ndR);
+
+        store.setHeight(node, calculateHeight(node));
+        store.setHeight(ndR, calculateHeight(ndR));
+        return ndR;
+    }
+
+    /**
+     * 旋转后把新的子树根节点挂回原来的父节点上
+     *
+     * @param p
+     * @param oldChild
+     * @param newChild
+     */
+    private void replaceChild(int p, int oldChild, int newChild) {
+        store.setParent(newChild, p);
+        if (p == NIL) {
+            root = newChild;
+        } else if (store.getLeft(p) == oldChild) {
+            store.setLeft(p, newChild);
+        } else {
+            store.setRight(p, newChild);
+        }
+    }
+
+    private int calculateHeight(int node) {
+        return Integer.max(getHeight(store.getLeft(node)), getHeight(store.getRight(node))) + 1;
+    }
+
+    /**
+     * 分配一个节点下标，优先从空闲链表里取，没有的话再用新下标，不够就扩容
+     *
+     * @param key
+     * @param p
+     * @return
+     */
+    private int allocate(int key, int p) {
+        int node;
+        if (freeHead != NIL) {
+            node = freeHead;
+            freeHead = store.getLeft(node);
+        } else {
+            if (allocated == Integer.MAX_VALUE) {
+                throw new IllegalStateException("节点个数超出上限");
+            }
+            store.ensureCapacity(allocated + 1);
+            node = allocated++;
+        }
+        store.setKey(node, key);
+        store.setLeft(node, NIL);
+        store.setRight(node, NIL);
+        store.setParent(node, p);
+        store.setHeight(node, 1);
+        return node;
+    }
+
+    /**
+     * 回收节点下标，挂到空闲链表的表头
+     *
+     * @param node
+     */
+    private void release(int node) {
+        store.setLeft(node, freeHead);
+        store.setRight(node, NIL);
+        store.setParent(node, NIL);
+        store.setHeight(node, 0);
+        freeHead = node;
+    }
+
+    /**
+     * 释放节点存储
+     */
+    @Override
+    public void close() {
+        store.close();
+    }
+
+    /**
+     * 获取根节点的 {@link INode} 视图，可以直接交给 {@link PrintableTree} 打印
+     *
+     * @return 树为空时返回 null
+     */
+    public INode<Integer> getRootNode() {
+        return view(root);
+    }
+
+    private NodeView view(int node) {
+        return node == NIL ? null : new NodeView(node);
+    }
+
+    /**
+     * 节点视图，只在打印这类非热点路径上按需创建
+     */
+    public class NodeView implements INode<Integer> {
+        // 节点下标
+        private final int index;
+
+        private NodeView(int index) {
+            this.index = index;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public Integer getData() {
+            return store.getKey(index);
+        }
+
+        @Override
+        public INode<Integer> getParent() {
+            return view(store.getParent(index));
+        }
+
+        @Override
+        public INode<Integer> getLeft() {
+            return view(store.getLeft(index));
+        }
+
+        @Override
+        public INode<Integer> getRight() {
+            return view(store.getRight(index));
+        }
+
+        @Override
+        public int getHeight() {
+            return store.getHeight(index);
+        }
+
+        @Override
+        public String toString() {
+            return "[" + store.getKey(index) + "]";
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.kilobytech.treeprinter.tree;
+
+import java.io.Closeable;
+
+/**
+ * @author huangtao
+ * @Title: IntNodeStore
+ * @Description: {@link IntBalanceBinarySearchTree} 的节点存储，每个节点是一个定长槽位，用 int 下标寻址，
+ * 槽位里存放数据、左右子节点下标、父节点下标和高度，节点的分配与回收由树自己管理，存储只负责读写和扩容
+ * @date 2020/8/3
+ */
+public interface IntNodeStore extends Closeable {
+
+    int getKey(int node);
+
+    void setKey(int node, int key);
+
+    int getLeft(int node);
+
+    void setLeft(int node, int left);
+
+    int getRight(int node);
+
+    void setRight(int node, int right);
+
+    int getParent(int node);
+
+    void setParent(int node, int parent);
+
+    int getHeight(int node);
+
+    void setHeight(int node, int height);
+
+    /**
+     * 当前可用的槽位个数
+     *
+     * @return
+     */
+    int capacity();
+
+    /**
+     * 保证至少有 minCapacity 个槽位，已有槽位的内容保持不变
+     *
+     * @param minCapacity
+     */
+    void ensureCapacity(int minCapacity);
+
+    /**
+     * 释放存储占用的资源，默认什么也不做
+     */
+    @Override
+    default void close() {
+    }
+}
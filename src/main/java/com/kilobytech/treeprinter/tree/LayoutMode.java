@@ -0,0 +1,26 @@
+package com.kilobytech.treeprinter.tree;
+
+/**
+ * @author huangtao
+ * @Title: LayoutMode
+ * @Description: 可打印树的布局方式，每次构建 {@link PrintableTree} 时可以单独指定
+ * @date 2020/8/11
+ */
+public enum LayoutMode {
+    /**
+     * 用虚拟节点把树补成满二叉树再打印，高度为 h 的树总会创建 2^h - 1 个打印节点
+     */
+    FULL,
+    /**
+     * 只为真实节点创建打印节点，每个节点的水平位置直接由它在满二叉树里的（深度，序号）算出来，
+     * 真实节点缺失的子节点在绘制时顺手画一个虚拟的 NIL 标签，不再往下补，
+     * 节点的内存和计算量和真实节点个数成正比，而不是 2^h
+     */
+    SPARSE,
+    /**
+     * 紧凑布局（Reingold–Tilford 风格），子树挨着子树摆放，只画真实节点，父子之间用 "_" 和 "/"、"\\" 连接，
+     * 每层只占两行，画布宽度和节点个数成正比，而不是 2^h
+     */
+    COMPACT,
+    ;
+}
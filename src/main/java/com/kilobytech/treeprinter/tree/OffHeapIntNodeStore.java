@@ -0,0 +1,187 @@
+package com.kilobytech.treeprinter.tree;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * @author huangtao
+ * @Title: OffHeapIntNodeStore
+ * @Description: 堆外节点存储，节点放在堆外内存里，GC 完全看不到它们
+ * 每个节点占一个 20 字节的定长槽位：
+ * |  key  |  left  |  right  |  parent  |  height  |
+ * |  0~3  |  4~7   |  8~11   |  12~15   |  16~19   |
+ * 槽位按块分配，每块 2^20 个槽位，下标的高位是块号，低位是块内序号，
+ * 这样单个 ByteBuffer 不会超过 int 能寻址的范围，而整体的字节偏移量用 long 计算，
+ * 有两种模式：
+ * 1.直接内存模式，每块是一个 {@link ByteBuffer#allocateDirect(int)}
+ * 2.文件映射模式，每块是文件上的一段 {@link FileChannel#map}，由操作系统按页换入换出，所以树可以比物理内存还大
+ * @date 2020/8/3
+ */
+public class OffHeapIntNodeStore implements IntNodeStore {
+
+    // 槽位各字段的偏移量
+    private static final int KEY = 0;
+    private static final int LEFT = 4;
+    private static final int RIGHT = 8;
+    private static final int PARENT = 12;
+    private static final int HEIGHT = 16;
+
+    // 槽位大小
+    public static final int SLOT_SIZE = 20;
+
+    // 每块槽位个数 = 1 << CHUNK_SHIFT
+    private static final int CHUNK_SHIFT = 20;
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+    private static final int CHUNK_BYTES = SLOT_SIZE << CHUNK_SHIFT;
+
+    // 文件映射模式下的文件通道，直接内存模式下为空
+    private final FileChannel channel;
+
+    private ByteBuffer[] chunks = new ByteBuffer[0];
+
+    private OffHeapIntNodeStore(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * 直接内存模式
+     *
+     * @return
+     */
+    public static OffHeapIntNodeStore direct() {
+        return new OffHeapIntNodeStore(null);
+    }
+
+    /**
+     * 文件映射模式，文件只作为工作空间使用，已有内容会被清空
+     *
+     * @param file
+     * @return
+     */
+    public static OffHeapIntNodeStore mapped(Path file) {
+        try {
+            return new OffHeapIntNodeStore(FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        } catch (IOException e) {
+            throw new UncheckedIOException("打开节点存储文件[" + file + "]失败", e);
+        }
+    }
+
+    /**
+     * 计算节点字段所在块内的字节偏移量
+     */
+    private static int offset(int node, int field) {
+        return (node & CHUNK_MASK) * SLOT_SIZE + field;
+    }
+
+    private ByteBuffer chunk(int node) {
+        return chunks[node >>> CHUNK_SHIFT];
+    }
+
+    @Override
+    public int getKey(int node) {
+        return chunk(node).getInt(offset(node, KEY));
+    }
+
+    @Override
+    public void setKey(int node, int key) {
+        chunk(node).putInt(offset(node, KEY), key);
+    }
+
+    @Override
+    public int getLeft(int node) {
+        return chunk(node).getInt(offset(node, LEFT));
+    }
+
+    @Override
+    public void setLeft(int node, int left) {
+        chunk(node).putInt(offset(node, LEFT), left);
+    }
+
+    @Override
+    public int getRight(int node) {
+        return chunk(node).getInt(offset(node, RIGHT));
+    }
+
+    @Override
+    public void setRight(int node, int right) {
+        chunk(node).putInt(offset(node, RIGHT), right);
+    }
+
+    @Override
+    public int getParent(int node) {
+        return chunk(node).getInt(offset(node, PARENT));
+    }
+
+    @Override
+    public void setParent(int node, int parent) {
+        chunk(node).putInt(offset(node, PARENT), parent);
+    }
+
+    @Override
+    public int getHeight(int node) {
+        return chunk(node).getInt(offset(node, HEIGHT));
+    }
+
+    @Override
+    public void setHeight(int node, int height) {
+        chunk(node).putInt(offset(node, HEIGHT), height);
+    }
+
+    @Override
+    public int capacity() {
+        return (int) Math.min((long) chunks.length << CHUNK_SHIFT, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 按块扩容，已分配的块不会移动，所以扩容不需要拷贝数据
+     *
+     * @param minCapacity
+     */
+    @Override
+    public void ensureCapacity(int minCapacity) {
+        if (minCapacity <= capacity()) {
+            return;
+        }
+        int chunkCount = ((minCapacity - 1) >>> CHUNK_SHIFT) + 1;
+        ByteBuffer[] grown = Arrays.copyOf(chunks, chunkCount);
+        for (int i = chunks.length; i < chunkCount; i++) {
+            grown[i] = allocateChunk(i);
+        }
+        chunks = grown;
+    }
+
+    private ByteBuffer allocateChunk(int chunkIndex) {
+        if (Objects.isNull(channel)) {
+            return ByteBuffer.allocateDirect(CHUNK_BYTES).order(ByteOrder.nativeOrder());
+        }
+        try {
+            long position = (long) chunkIndex * CHUNK_BYTES;
+            return channel.map(FileChannel.MapMode.READ_WRITE, position, CHUNK_BYTES).order(ByteOrder.nativeOrder());
+        } catch (IOException e) {
+            throw new UncheckedIOException("映射第" + chunkIndex + "块节点存储失败", e);
+        }
+    }
+
+    /**
+     * 关闭文件通道，直接内存和已映射的区域在缓冲区对象被回收时释放
+     */
+    @Override
+    public void close() {
+        chunks = new ByteBuffer[0];
+        if (Objects.nonNull(channel)) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException("关闭节点存储文件失败", e);
+            }
+        }
+    }
+}
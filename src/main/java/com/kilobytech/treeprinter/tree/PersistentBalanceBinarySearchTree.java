@@ -0,0 +1,298 @@
+package com.kilobytech.treeprinter.tree;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author huangtao
+ * @Title: PersistentBalanceBinarySearchTree
+ * @Description: 持久化（路径复制）平衡二叉搜索树
+ * 节点一旦创建就不再修改，插入或删除时只复制从根节点到变更位置这一条路径上的节点（加上旋转涉及的几个节点），
+ * 其余子树在新旧版本之间共享，所以每次修改都会得到一个新的版本 {@link Snapshot}，旧版本保持原样，
+ * 取快照就是拿到当前版本的引用，复杂度 O(1)，拿到快照后可以放心地在别的线程里慢慢打印，
+ * 不用担心写线程同时在修改，某个版本没有人引用之后自然会被 GC 回收
+ * @date 2020/8/5
+ */
+public class PersistentBalanceBinarySearchTree<E extends Comparable> {
+
+    /**
+     * 不可变节点，因为同一个节点会被多个版本共享，所以没有父节点指针，{@link #getParent()} 永远返回 null
+     *
+     * @param <E>
+     */
+    public static final class Node<E extends Comparable> implements INode<E> {
+        // 数据
+        private final E data;
+        // 左子节点
+        private final Node<E> left;
+        // 右子节点
+        private final Node<E> right;
+        // 高度
+        private final int height;
+
+        private Node(E data, Node<E> left, Node<E> right) {
+            this.data = data;
+            this.left = left;
+            this.right = right;
+            this.height = Integer.max(heightOf(left), heightOf(right)) + 1;
+        }
+
+        @Override
+        public E getData() {
+            return data;
+        }
+
+        @Override
+        public INode<E> getParent() {
+            return null;
+        }
+
+        @Override
+        public Node<E> getLeft() {
+            return left;
+        }
+
+        @Override
+        public Node<E> getRight() {
+            return right;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        public int getBalanceFactor() {
+            return heightOf(left) - heightOf(right);
+        }
+
+        @Override
+        public String toString() {
+            return "[" + this.data + "]";
+        }
+    }
+
+    /**
+     * 树的一个版本，不可变
+     *
+     * @param <E>
+     */
+    public static final class Snapshot<E extends Comparable> {
+        // 这个版本的根节点
+        private final Node<E> root;
+        // 这个版本的节点个数
+        private final int size;
+        // 版本号，每次修改加一
+        private final long version;
+
+        private Snapshot(Node<E> root, int size, long version) {
+            this.root = root;
+            this.size = size;
+            this.version = version;
+        }
+
+        public Node<E> getRoot() {
+            return root;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * 搜索
+         *
+         * @param data
+         * @return
+         */
+        public Node<E> search(E data) {
+            Node<E> current = root;
+            while (Objects.nonNull(current)) {
+                int cmp = data.compareTo(current.data);
+                if (cmp < 0) {
+                    current = current.left;
+                } else if (cmp > 0) {
+                    current = current.right;
+                } else {
+                    return current;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 插入新值，得到一个新版本
+         *
+         * @param data
+         * @return 数据已存在时返回当前版本本身
+         */
+        public Snapshot<E> insert(E data) {
+            Node<E> newRoot = PersistentBalanceBinarySearchTree.insert(root, data);
+            if (newRoot == root) {
+                return this;
+            }
+            return new Snapshot<>(newRoot, size + 1, version + 1);
+        }
+
+        /**
+         * 删除数据，得到一个新版本
+         *
+         * @param data
+         * @return 数据不存在时返回当前版本本身
+         */
+        public Snapshot<E> delete(E data) {
+            if (Objects.isNull(search(data))) {
+                return this;
+            }
+            return new Snapshot<>(PersistentBalanceBinarySearchTree.delete(root, data), size - 1, version + 1);
+        }
+    }
+
+    // 当前版本
+    private final AtomicReference<Snapshot<E>> current = new AtomicReference<>(new Snapshot<>(null, 0, 0));
+
+    /**
+     * 获取当前版本的快照，O(1)
+     *
+     * @return
+     */
+    public Snapshot<E> snapshot() {
+        return current.get();
+    }
+
+    public Node<E> getRoot() {
+        return current.get().getRoot();
+    }
+
+    public int getSize() {
+        return current.get().getSize();
+    }
+
+    /**
+     * 插入新值，多个写线程并发插入时通过 CAS 发布新版本，失败就基于最新版本重做
+     *
+     * @param data
+     * @return
+     */
+    public boolean insert(E data) {
+        while (true) {
+            Snapshot<E> snapshot = current.get();
+            Snapshot<E> next = snapshot.insert(data);
+            if (next == snapshot) {
+                return false;
+            }
+            if (current.compareAndSet(snapshot, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 删除数据
+     *
+     * @param data
+     * @return
+     */
+    public boolean delete(E data) {
+        while (true) {
+            Snapshot<E> snapshot = current.get();
+            Snapshot<E> next = snapshot.delete(data);
+            if (next == snapshot) {
+                return false;
+            }
+            if (current.compareAndSet(snapshot, next)) {
+                return true;
+            }
+        }
+    }
+
+    private static int heightOf(Node<?> node) {
+        return Objects.isNull(node) ? 0 : node.height;
+    }
+
+    /**
+     * 在以 node 为根的子树里插入，返回新子树的根，数据已存在时原样返回 node
+     */
+    private static <E extends Comparable> Node<E> insert(Node<E> node, E data) {
+        if (Objects.isNull(node)) {
+            return new Node<>(data, null, null);
+        }
+        int cmp = data.compareTo(node.data);
+        if (cmp < 0) {
+            Node<E> left = insert(node.left, data);
+            return left == node.left ? node : balance(node.data, left, node.right);
+        } else if (cmp > 0) {
+            Node<E> right = insert(node.right, data);
+            return right == node.right ? node : balance(node.data, node.left, right);
+        }
+        return node;
+    }
+
+    /**
+     * 在以 node 为根的子树里删除，调用前已确认数据存在，
+     * 有两个子节点时和 {@link BalanceBinarySearchTree} 一样，平衡因子不小于 0 就用左子树最大值顶替，否则用右子树最小值顶替
+     */
+    private static <E extends Comparable> Node<E> delete(Node<E> node, E data) {
+        int cmp = data.compareTo(node.data);
+        if (cmp < 0) {
+            return balance(node.data, delete(node.left, data), node.right);
+        } else if (cmp > 0) {
+            return balance(node.data, node.left, delete(node.right, data));
+        }
+        if (Objects.isNull(node.left)) {
+            return node.right;
+        }
+        if (Objects.isNull(node.right)) {
+            return node.left;
+        }
+        if (node.getBalanceFactor() >= 0) {
+            Node<E> max = node.left;
+            while (Objects.nonNull(max.right)) {
+                max = max.right;
+            }
+            return balance(max.data, delete(node.left, max.data), node.right);
+        }
+        Node<E> min = node.right;
+        while (Objects.nonNull(min.left)) {
+            min = min.left;
+        }
+        return balance(min.data, node.left, delete(node.right, min.data));
+    }
+
+    /**
+     * 用给定的数据和左右子树创建新节点，不平衡时旋转，旋转同样是创建新节点而不是修改旧节点
+     */
+    private static <E extends Comparable> Node<E> balance(E data, Node<E> left, Node<E> right) {
+        int bf = heightOf(left) - heightOf(right);
+        if (bf > 1) {
+            if (left.getBalanceFactor() < 0) {
+                left = leftRotate(left.data, left.left, left.right);
+            }
+            return rightRotate(data, left, right);
+        } else if (bf < -1) {
+            if (right.getBalanceFactor() > 0) {
+                right = rightRotate(right.data, right.left, right.right);
+            }
+            return leftRotate(data, left, right);
+        }
+        return new Node<>(data, left, right);
+    }
+
+    /**
+     * 右旋：以 left 为新的根
+     */
+    private static <E extends Comparable> Node<E> rightRotate(E data, Node<E> left, Node<E> right) {
+        return new Node<>(left.data, left.left, new Node<>(data, left.right, right));
+    }
+
+    /**
+     * 左旋：以 right 为新的根
+     */
+    private static <E extends Comparable> Node<E> leftRotate(E data, Node<E> left, Node<E> right) {
+        return new Node<>(right.data, new Node<>(data, left, right.left), right.right);
+    }
+}
@@ -1,15 +1,34 @@
 package com.kilobytech.treeprinter.tree;
 
-import com.kilobytech.treeprinter.tree.BalanceBinarySearchTree.Node;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.stream.Collectors;
 
 /**
@@ -21,6 +40,15 @@ import java.util.stream.Collectors;
 @Slf4j
 public class PrintableTree<E extends Comparable> {
 
+    // 打印容器的字符个数不到这个值时不并行，拆分任务的开销比画的时间还长
+    private static final long PARALLEL_CELLS = 1 << 16;
+
+    // 内存映射输出时每次映射的最大字节数，按整行对齐
+    private static final long MAP_WINDOW = 1L << 30;
+
+    // 一个打印节点连同它的标签大约占用的堆内存字节数，只用来粗略估计 FULL 布局的虚拟节点放不放得下
+    private static final long NODE_BYTES = 160;
+
     // 树的根节点
     private PrintableNode root;
 
@@ -30,8 +58,14 @@ public class PrintableTree<E extends Comparable> {
     // 树的高度
     private int maxHeight;
 
-    // 打印的字符都装在这个容器中，这个容器用这个矩阵实现，以利用的矩阵有下标索引模拟每个打印字符位置的坐标信息
-    private char[][] container;
+    // 布局方式
+    private LayoutMode layoutMode = LayoutMode.FULL;
+
+    // 最多打印几层真实节点，更深的子树折叠成一个摘要节点
+    private int maxDepth = Integer.MAX_VALUE;
+
+    // 打印的字符都装在这个容器中，容器是一块按行首尾相接的画布，用（行，列）模拟每个打印字符位置的坐标信息
+    private Canvas container;
 
     // 打印容器最大宽度
     private int containerWidth;
@@ -81,6 +115,12 @@ public class PrintableTree<E extends Comparable> {
      */
     private Map<Integer, Integer> depthNodePrintRowMapping;
 
+    // 订阅源树时的订阅关系，没有订阅时为空
+    private Subscription subscription;
+
+    // 按指定的布局方式放不下时是否自动退到更省内存的布局，否则直接失败
+    private boolean degrade;
+
     public PrintableNode getRoot() {
         return root;
     }
@@ -89,6 +129,14 @@ public class PrintableTree<E extends Comparable> {
         return maxHeight;
     }
 
+    public int getContainerWidth() {
+        return containerWidth;
+    }
+
+    public int getUnitBlockLength() {
+        return unitBlockLength;
+    }
+
     /**
      * 打印节点
      */
@@ -104,12 +152,21 @@ public class PrintableTree<E extends Comparable> {
          * 若为[30]节点的虚拟左子节点右子节点，即[30]节点的孙子节点，那么显示的内容就是[L-R-NIL-30]，其他情况同理
          */
         private String nilParent;
-        // 节点数据
-        private final E data;
+        // 折叠子树的摘要，不为空时这个节点代表超过最大深度的一整棵子树
+        private String summary;
+        // 节点数据，订阅源树时删除节点可能会替换数据
+        private E data;
         // 节点的偏移量
         private int offset;
         // 打印节点的深度
         private final int printableNodeDepth;
+        // 节点在满二叉树同一层里的序号，从 0 开始，只有 SPARSE 布局使用
+        private long slot;
+        // 节点中心相对父节点中心的水平距离，只有 COMPACT 布局使用
+        private int relativeCenter;
+        // 子树最左、最右的列（包括横线）相对节点中心的距离，只有 COMPACT 布局使用
+        private int leftExtent;
+        private int rightExtent;
 
         // 水平偏移百分比
         private double horizontalOffsetPercent;
@@ -137,6 +194,9 @@ public class PrintableTree<E extends Comparable> {
          */
         @Override
         public String toString() {
+            if (Objects.nonNull(summary)) {
+                return "[" + summary + "]";
+            }
             String print = Objects.isNull(data) ? nilParent : String.valueOf(data);
             return "[" + print + "]";
         }
@@ -227,44 +287,94 @@ public class PrintableTree<E extends Comparable> {
      * 据是一个道理
      * 其实方法也很简单，也就是使用了广度优先搜索每层拷贝，将数据，高度这些信息把扒过来
      * 即可，但是平衡因子是暂时没用到，所以这个属性就不用拷贝过来了
+     * 源树节点和它在拷贝树上的替身一起入队、一起出队，替身本身就记着深度，所以不需要再按数据
+     * 从根节点搜索替身的位置，也不需要向上递归计算深度，整个复制过程是 O(n) 的，而且不依赖
+     * 数据的大小关系，任何 {@link INode} 树都能复制，哪怕不是搜索树或者有相等的数据
+     *
+     * @param bTreeRoot
+     * @return
+     */
+    private PrintableNode deepClone(INode<E> bTreeRoot) {
+        return deepClone(bTreeRoot, null, 1);
+    }
+
+    /**
+     * 复制源树上的一棵子树，挂在可打印树的 parent 下面，子树根节点的深度是 depth
      *
      * @param bTreeRoot
+     * @param parent
+     * @param depth
      * @return
      */
-    private PrintableNode deepClone(Node bTreeRoot) {
-        // 队列先进先出
-        Queue<Node> access = new LinkedList();
+    private PrintableNode deepClone(INode<E> bTreeRoot, PrintableNode parent, int depth) {
+        if (depth > this.maxDepth) {
+            return summarize(parent, bTreeRoot);
+        }
+        // 队列先进先出，源树节点和替身节点成对出入队
+        Queue<INode<E>> access = new ArrayDeque<>();
+        Queue<PrintableNode> twins = new ArrayDeque<>();
         // 根据给定的源树根节点复制一个可打印树的根节点
-        PrintableNode pRoot = new PrintableNode(null, null, null, (E) bTreeRoot.getData(), 1);
+        PrintableNode pRoot = new PrintableNode(parent, null, null, bTreeRoot.getData(), depth);
         // 将根节点入队
         access.add(bTreeRoot);
+        twins.add(pRoot);
         while (!access.isEmpty()) {
             // 若队列不为空，则出队该元素进行处理，并将其子节点入队
-            Node node = access.poll();
-            // 根据源树节点数据到拷贝树里进行搜索对应位置的节点
-            PrintableNode pNode = search(node.getData(), pRoot);
-            // 因为平衡二叉搜索树没有保存深度属性，所以我们可以通过向上递归搜索的方式计算出来该节点的深度信息
-            int depth = pNode.calculateDepth();
+            INode<E> node = access.poll();
+            PrintableNode pNode = twins.poll();
+            int nodeDepth = pNode.printableNodeDepth;
             // 若节点的子节点为空则创建一个虚拟子节点，并设置该子节点的深度为当前节点深度+1，然后将其挂载到当前节点上，
             // 若不为空则复制节点数据并同样设置子节点深度为当前深度+1，然后将其挂载到当前节点上
-            if (Objects.nonNull(node.getLeft())) {
+            INode<E> left = node.getLeft();
+            if (Objects.nonNull(left) && nodeDepth == this.maxDepth) {
+                pNode.left = summarize(pNode, left);
+            } else if (Objects.nonNull(left)) {
+                pNode.left = new PrintableNode(pNode, null, null, left.getData(), nodeDepth + 1);
                 // 左子节点入队
-                access.offer(node.getLeft());
-                pNode.left = new PrintableNode(pNode, null, null, (E) node.getLeft().getData(), depth + 1);
-            } else if (depth < bTreeRoot.getHeight()) {
-                pNode.left = new PrintableNode(pNode, null, null, null, depth + 1, "L-NIL-" + pNode.getData());
+                access.offer(left);
+                twins.offer(pNode.left);
+            } else if (nodeDepth < this.maxHeight && this.layoutMode == LayoutMode.FULL) {
+                pNode.left = new PrintableNode(pNode, null, null, null, nodeDepth + 1, "L-NIL-" + pNode.getData());
             }
-            if (Objects.nonNull(node.getRight())) {
+            INode<E> right = node.getRight();
+            if (Objects.nonNull(right) && nodeDepth == this.maxDepth) {
+                pNode.right = summarize(pNode, right);
+            } else if (Objects.nonNull(right)) {
+                pNode.right = new PrintableNode(pNode, null, null, right.getData(), nodeDepth + 1);
                 // 右子节点入队
-                access.offer(node.getRight());
-                pNode.right = new PrintableNode(pNode, null, null, (E) node.getRight().getData(), depth + 1);
-            } else if (depth < bTreeRoot.getHeight()) {
-                pNode.right = new PrintableNode(pNode, null, null, null, depth + 1, "R-NIL-" + pNode.getData());
+                access.offer(right);
+                twins.offer(pNode.right);
+            } else if (nodeDepth < this.maxHeight && this.layoutMode == LayoutMode.FULL) {
+                pNode.right = new PrintableNode(pNode, null, null, null, nodeDepth + 1, "R-NIL-" + pNode.getData());
             }
         }
         return pRoot;
     }
 
+    /**
+     * 把超过最大深度的子树折叠成一个摘要节点，内容是节点个数、中序遍历的第一个和最后一个数据（搜索树就是最小值和最大值）以及子树高度，
+     * 个数和高度直接取源节点维护好的值，没有维护子树大小时个数显示为 "?"，第一个和最后一个数据只沿着最左、最右的路径往下走，
+     * 所以每个摘要只花 O(h)，整棵可打印树的节点不超过 2^(maxDepth + 1) 个，和源树有多大无关
+     *
+     * @param parent
+     * @param subtree
+     * @return
+     */
+    private PrintableNode summarize(PrintableNode parent, INode<E> subtree) {
+        INode<E> first = subtree;
+        while (Objects.nonNull(first.getLeft())) {
+            first = first.getLeft();
+        }
+        INode<E> last = subtree;
+        while (Objects.nonNull(last.getRight())) {
+            last = last.getRight();
+        }
+        int size = subtree.getSize();
+        PrintableNode summary = new PrintableNode(parent, null, null, null, parent.printableNodeDepth + 1);
+        summary.summary = "n=" + (size < 0 ? "?" : String.valueOf(size)) + " " + first.getData() + "~" + last.getData() + " h=" + subtree.getHeight();
+        return summary;
+    }
+
     /**
      * 用虚拟子节点填满为空的节点，同样使用的是广度优先搜索
      *
@@ -313,30 +423,203 @@ public class PrintableTree<E extends Comparable> {
                 .collect(Collectors.summarizingInt(e -> e)).getMax();
     }
 
-    public PrintableTree(Node root) {
+    /**
+     * 任何实现了 {@link INode} 的二叉树都可以打印
+     *
+     * @param root
+     */
+    public PrintableTree(INode<E> root) {
+        this(root, LayoutMode.FULL);
+    }
+
+    /**
+     * 按指定的布局方式构建可打印树
+     *
+     * @param root
+     * @param layoutMode
+     */
+    public PrintableTree(INode<E> root, LayoutMode layoutMode) {
+        this(root, layoutMode, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 只打印前 maxDepth 层，更深的每棵子树折叠成一个摘要节点，显示节点个数、最小最大数据和高度，
+     * 树再大，需要处理的节点也不超过 2^(maxDepth + 1) 个
+     *
+     * @param root
+     * @param layoutMode
+     * @param maxDepth   至少为 1
+     */
+    public PrintableTree(INode<E> root, LayoutMode layoutMode, int maxDepth) {
+        this(root, layoutMode, maxDepth, null);
+    }
+
+    /**
+     * 在 pool 里并行分配和构建打印容器，结果和串行构建的逐字节一致，pool 为空时就是串行构建
+     *
+     * @param root
+     * @param layoutMode
+     * @param maxDepth
+     * @param pool
+     * @see #buildPrintContainer(ForkJoinPool)
+     */
+    public PrintableTree(INode<E> root, LayoutMode layoutMode, int maxDepth, ForkJoinPool pool) {
+        this(root, layoutMode, maxDepth, pool, false);
+    }
+
+    private PrintableTree(INode<E> root, LayoutMode layoutMode, int maxDepth, ForkJoinPool pool, boolean degrade) {
+        this(layoutMode, maxDepth);
+        this.degrade = degrade;
         if (Objects.isNull(root)) {
             log.info("根节点为空[NULL]");
             return;
         }
-        // 源树和可打印树的高度保持一致
-        this.maxHeight = root.getHeight();
         // 将源树复制一份变成可打印树
-        PrintableNode pRoot = deepClone(root);
+        cloneSource(root);
+        // 估算内存，放不下就失败或者降级
+        fitLayout(root, true);
+        // 将子节点用虚拟子节点填满
+        fillNil();
+        // 分配打印容器
+        allocateContainer(pool);
+        // 构建打印容器
+        buildPrintContainer(pool);
+    }
+
+    /**
+     * 同 {@link #PrintableTree(INode, LayoutMode, int, ForkJoinPool)}，但是按指定的布局方式放不下时不失败，而是自动降级：
+     * FULL 布局只是补出来的虚拟节点太多时退到 SPARSE，画布太大时退到 COMPACT，实际用的布局方式看 {@link #getLayoutMode()}，
+     * COMPACT 也放不下时照样抛出异常
+     *
+     * @param root
+     * @param layoutMode
+     * @param maxDepth
+     * @param pool
+     * @param <E>
+     * @return
+     * @see #fitLayout(INode, boolean)
+     */
+    public static <E extends Comparable> PrintableTree<E> fitting(INode<E> root, LayoutMode layoutMode, int maxDepth, ForkJoinPool pool) {
+        return new PrintableTree<>(root, layoutMode, maxDepth, pool, true);
+    }
+
+    /**
+     * 只给分阶段的基准测试用，构造之后需要按顺序调用 {@link #cloneSource(INode)}、{@link #fillNil()}、
+     * {@link #allocateContainer()}、{@link #buildPrintContainer()}
+     */
+    PrintableTree() {
+    }
+
+    PrintableTree(LayoutMode layoutMode) {
+        this.layoutMode = layoutMode;
+    }
+
+    PrintableTree(LayoutMode layoutMode, int maxDepth) {
+        if (maxDepth < 1) {
+            throw new IllegalArgumentException("最大深度至少为 1，实际为 " + maxDepth);
+        }
+        this.layoutMode = layoutMode;
+        this.maxDepth = maxDepth;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public LayoutMode getLayoutMode() {
+        return layoutMode;
+    }
+
+    /**
+     * 阶段一：复制源树
+     *
+     * @param source
+     */
+    void cloneSource(INode<E> source) {
+        // 源树和可打印树的高度保持一致，超过最大深度时多出一层摘要节点
+        int height = source.getHeight();
+        this.maxHeight = height > this.maxDepth ? this.maxDepth + 1 : height;
+        PrintableNode pRoot = deepClone(source);
         if (Objects.isNull(pRoot)) {
             throw new IllegalStateException("源树根节点不为空，拷贝树的根节点为空，此状态异常，请 DEBUG 检查");
         }
-        // 将子节点用虚拟子节点填满
-        fillWithNilNode(pRoot);
         // 将处理好的可打印树的根节点设置为全局变量
         this.root = pRoot;
-        // 上次访问的节点深度，默认从根节点开始访问
-        this.lastAccessDepth = 1;
+    }
+
+    /**
+     * 阶段二：用虚拟子节点填满空节点，同时统计出节点打印的最大长度，
+     * SPARSE 布局不创建虚拟节点，只统计真实节点和它们的虚拟 NIL 子节点的打印长度
+     */
+    void fillNil() {
+        switch (this.layoutMode) {
+            case SPARSE:
+                measureLabels(true);
+                break;
+            case COMPACT:
+                measureLabels(false);
+                break;
+            default:
+                fillWithNilNode(this.root);
+        }
+    }
+
+    /**
+     * 虚拟 NIL 子节点的打印内容，和 FULL 布局里第一层虚拟节点的内容一致
+     *
+     * @param parent
+     * @param right
+     * @return
+     */
+    private String nilLabel(PrintableNode parent, boolean right) {
+        return (right ? "[R-NIL-" : "[L-NIL-") + parent.data + "]";
+    }
+
+    /**
+     * 统计 SPARSE、COMPACT 布局下所有要画出来的标签的最大长度
+     *
+     * @param withNil 是否包括虚拟的 NIL 子节点
+     */
+    private void measureLabels(boolean withNil) {
+        Queue<PrintableNode> access = new ArrayDeque<>();
+        access.offer(this.root);
+        while (!access.isEmpty()) {
+            PrintableNode poll = access.poll();
+            this.displayContentMaxLength = Math.max(this.displayContentMaxLength, poll.toString().length());
+            if (poll.printableNodeDepth == this.maxHeight) {
+                continue;
+            }
+            if (Objects.nonNull(poll.left)) {
+                access.offer(poll.left);
+            } else if (withNil) {
+                this.displayContentMaxLength = Math.max(this.displayContentMaxLength, nilLabel(poll, false).length());
+            }
+            if (Objects.nonNull(poll.right)) {
+                access.offer(poll.right);
+            } else if (withNil) {
+                this.displayContentMaxLength = Math.max(this.displayContentMaxLength, nilLabel(poll, true).length());
+            }
+        }
+    }
+
+    /**
+     * 计算容器的宽度以及每层深度对应的打印行，需要在 {@link #fillNil()} 之后调用
+     */
+    void measureContainer() {
         // 深度和节点打印起始行的对应关系
         this.depthNodePrintRowMapping = new HashMap<>();
         // 节点元素打印的字符串长度
         this.unitBlockLength = this.displayContentMaxLength + 2;// 加上两个左右挪动误差字符
-        // containerWidth 代表打印容器的最大宽度，也就是最底层的元素个数 * 2 ^ (树高度 - 1)
-        this.containerWidth = this.unitBlockLength << (this.maxHeight - 1);
+        if (this.layoutMode == LayoutMode.COMPACT) {
+            measureCompactContainer();
+            return;
+        }
+        // containerWidth 代表打印容器的最大宽度，也就是最底层的元素个数 * 2 ^ (树高度 - 1)，树高二十几层就会超出 int 的范围，先用 long 算
+        long width = widthOf(this.unitBlockLength, this.maxHeight);
+        if (width > Canvas.MAX_CELLS) {
+            throw new IllegalStateException(describeWidth(this.unitBlockLength, this.maxHeight) + "，可以指定最大深度或者改用 COMPACT 布局");
+        }
+        this.containerWidth = (int) width;
         // 第一层的打印行就是第一行
         this.depthNodePrintRowMapping.put(1, 1);
         // 将每一层的深度都映射到打印起始行并存入映射关系
@@ -346,6 +629,235 @@ public class PrintableTree<E extends Comparable> {
             // 对应关系：当前层数打印行 = 当前层与上层的行数差距 + 上一层的打印行数 + 1
             this.depthNodePrintRowMapping.put(i, this.depthNodePrintRowMapping.get(i - 1) + lineRowGap + 1);
         }
+    }
+
+    /**
+     * COMPACT 布局：每层占两行，第一行是节点，第二行是 "/" 或者 "\\"，
+     * 先自底向上排好每个节点相对父节点的位置，再自顶向下算出每个节点中心所在的列，
+     * 画布宽度就是最左和最右两个节点中心的距离再加一个单元块的长度
+     */
+    private void measureCompactContainer() {
+        for (int i = 1; i <= this.maxHeight; i++) {
+            this.depthNodePrintRowMapping.put(i, 2 * i - 1);
+        }
+        layoutCompact(this.root);
+        // 先以根节点中心为 0 算出每个节点中心的列，同时记下最左、最右的中心
+        int minCenter = 0;
+        int maxCenter = 0;
+        Queue<PrintableNode> access = new ArrayDeque<>();
+        this.root.offset = 0;
+        access.offer(this.root);
+        while (!access.isEmpty()) {
+            PrintableNode poll = access.poll();
+            minCenter = Math.min(minCenter, poll.offset);
+            maxCenter = Math.max(maxCenter, poll.offset);
+            if (Objects.nonNull(poll.left)) {
+                poll.left.offset = poll.offset + poll.left.relativeCenter;
+                access.offer(poll.left);
+            }
+            if (Objects.nonNull(poll.right)) {
+                poll.right.offset = poll.offset + poll.right.relativeCenter;
+                access.offer(poll.right);
+            }
+        }
+        this.containerWidth = maxCenter - minCenter + this.unitBlockLength;
+        // 整体右移，让最左边的单元块从第 0 列开始，offset 最终保存的是单元块的起始列，和其他布局一致
+        int shift = this.unitBlockLength / 2 - minCenter;
+        access.offer(this.root);
+        while (!access.isEmpty()) {
+            PrintableNode poll = access.poll();
+            int center = poll.offset + shift;
+            poll.offset = center - this.unitBlockLength / 2;
+            poll.horizontalOffsetPercent = (double) center / this.containerWidth;
+            poll.verticalOffsetPercent = (double) poll.printableNodeDepth / this.maxHeight;
+            if (Objects.nonNull(poll.left)) {
+                access.offer(poll.left);
+            }
+            if (Objects.nonNull(poll.right)) {
+                access.offer(poll.right);
+            }
+        }
+    }
+
+    /**
+     * 自底向上排布子树，返回子树每一层的左右轮廓（相对子树根节点中心的列），下标 0 是子树根节点所在的层，
+     * 每一层的轮廓包括节点本身以及它伸向子节点的 "_" 横线，
+     * 左右两棵子树在共同的每一层上至少隔开一个单元块，父节点放在两个子节点正中间，
+     * 只有一个子节点时子节点偏向一侧半个单元块，
+     * 每个节点合并轮廓的代价是子树高度，所以整体是 O(n * h)，平衡树就是 O(n log n)
+     *
+     * @param node
+     * @return {左轮廓, 右轮廓}
+     */
+    private int[][] layoutCompact(PrintableNode node) {
+        int[][] left = Objects.isNull(node.left) ? null : layoutCompact(node.left);
+        int[][] right = Objects.isNull(node.right) ? null : layoutCompact(node.right);
+        int separation = this.unitBlockLength;
+        if (Objects.nonNull(left) && Objects.nonNull(right)) {
+            int distance = 0;
+            int common = Math.min(left[1].length, right[0].length);
+            for (int d = 0; d < common; d++) {
+                distance = Math.max(distance, left[1][d] - right[0][d] + separation);
+            }
+            // 保证父节点正好在两个子节点中间
+            distance += distance & 1;
+            node.left.relativeCenter = -distance / 2;
+            node.right.relativeCenter = distance / 2;
+        } else if (Objects.nonNull(left)) {
+            node.left.relativeCenter = -separation / 2;
+        } else if (Objects.nonNull(right)) {
+            node.right.relativeCenter = separation / 2;
+        }
+        int levels = 1 + Math.max(Objects.isNull(left) ? 0 : left[0].length, Objects.isNull(right) ? 0 : right[0].length);
+        int[] leftContour = new int[levels];
+        int[] rightContour = new int[levels];
+        leftContour[0] = Objects.isNull(left) ? 0 : Math.min(0, node.left.relativeCenter);
+        rightContour[0] = Objects.isNull(right) ? 0 : Math.max(0, node.right.relativeCenter);
+        node.leftExtent = leftContour[0];
+        node.rightExtent = rightContour[0];
+        for (int d = 1; d < levels; d++) {
+            leftContour[d] = Integer.MAX_VALUE;
+            rightContour[d] = Integer.MIN_VALUE;
+            if (Objects.nonNull(left) && d - 1 < left[0].length) {
+                leftContour[d] = Math.min(leftContour[d], left[0][d - 1] + node.left.relativeCenter);
+                rightContour[d] = Math.max(rightContour[d], left[1][d - 1] + node.left.relativeCenter);
+            }
+            if (Objects.nonNull(right) && d - 1 < right[0].length) {
+                leftContour[d] = Math.min(leftContour[d], right[0][d - 1] + node.right.relativeCenter);
+                rightContour[d] = Math.max(rightContour[d], right[1][d - 1] + node.right.relativeCenter);
+            }
+            node.leftExtent = Math.min(node.leftExtent, leftContour[d]);
+            node.rightExtent = Math.max(node.rightExtent, rightContour[d]);
+        }
+        return new int[][]{leftContour, rightContour};
+    }
+
+    /**
+     * 打印容器的字符个数（行数 * 宽度），需要在 {@link #measureContainer()} 之后调用，
+     * 树越高，这个值按 4 的指数增长
+     *
+     * @return
+     */
+    long containerCells() {
+        return (long) getMaxLineNumber4Print() * this.containerWidth;
+    }
+
+    /**
+     * 树高为 height 时 FULL、SPARSE 布局的画布宽度，超出 long 的范围时返回 {@link Long#MAX_VALUE}
+     */
+    private static long widthOf(int unitBlockLength, int height) {
+        return height > 32 ? Long.MAX_VALUE : (long) unitBlockLength << (height - 1);
+    }
+
+    /**
+     * 宽度为 width、树高为 height 时 FULL、SPARSE 布局的画布行数，和 {@link #measureContainer()} 里每层的打印行一致
+     */
+    private static long rowsOf(long width, int height) {
+        long row = 1;
+        for (int i = 2; i <= height; i++) {
+            row += width / (1L << i) + 2;
+        }
+        return row;
+    }
+
+    private static String describeWidth(int unitBlockLength, int height) {
+        return "树高 " + height + " 层时画布宽度 " + unitBlockLength + " x 2^" + (height - 1) + " = "
+                + BigInteger.valueOf(unitBlockLength).shiftLeft(height - 1) + " 列，超出单个数组的上限 " + Canvas.MAX_CELLS;
+    }
+
+    /**
+     * 补虚拟节点、分配打印容器之前先估算要用多少内存：画布的行数和宽度，以及 FULL 布局补成满二叉树之后的 2^h - 1 个打印节点，
+     * 宽度超出数组的上限或者估算的字节数超出可用的堆内存时，允许降级就退到 SPARSE（只是 FULL 的虚拟节点放不下）
+     * 或者 COMPACT（画布放不下，COMPACT 的宽度和节点个数成正比），重新复制源树，
+     * 否则直接抛出带估算值的异常，而不是等到计算宽度时整数溢出、分配数组时长度为负或者内存溢出，
+     * 需要在 {@link #cloneSource(INode)} 之后、{@link #fillNil()} 之前调用
+     *
+     * @param source   源树根节点，降级之后要按新的布局方式重新复制
+     * @param allocate 是否要分配打印容器，只计算坐标的时候不算画布
+     */
+    void fitLayout(INode<E> source, boolean allocate) {
+        if (this.layoutMode == LayoutMode.COMPACT) {
+            return;
+        }
+        int unitBlockLength = labelLengthBeforeFill() + 2;
+        long width = widthOf(unitBlockLength, this.maxHeight);
+        String problem;
+        boolean canvasFits = false;
+        if (width > Canvas.MAX_CELLS) {
+            problem = describeWidth(unitBlockLength, this.maxHeight);
+        } else {
+            long rows = rowsOf(width, this.maxHeight);
+            long canvasBytes = allocate ? Canvas.bytes(rows, width, labelsWithin((char) 0xFF)) : 0;
+            // 宽度没有超出上限时树高不超过 30 层，节点个数不会溢出
+            long nodes = this.layoutMode == LayoutMode.FULL ? (1L << this.maxHeight) - 1 : 0;
+            long available = Canvas.availableBytes();
+            if (canvasBytes + nodes * NODE_BYTES <= available) {
+                return;
+            }
+            canvasFits = canvasBytes <= available;
+            problem = this.layoutMode + " 布局需要约 " + Canvas.megabytes(canvasBytes + nodes * NODE_BYTES) + " MB（"
+                    + (allocate ? "画布 " + rows + " 行 x " + width + " 列 " + Canvas.megabytes(canvasBytes) + " MB" : "不分配画布")
+                    + (nodes > 0 ? "，" + nodes + " 个打印节点 " + Canvas.megabytes(nodes * NODE_BYTES) + " MB" : "")
+                    + "），当前可用的堆内存约 " + Canvas.megabytes(available) + " MB";
+        }
+        if (!this.degrade) {
+            throw new IllegalStateException(problem + "，可以指定最大深度、改用 COMPACT 布局或者用 fitting 自动降级");
+        }
+        LayoutMode fallback = this.layoutMode == LayoutMode.FULL && canvasFits ? LayoutMode.SPARSE : LayoutMode.COMPACT;
+        log.warn("{}，改用 {} 布局", problem, fallback);
+        this.layoutMode = fallback;
+        cloneSource(source);
+        fitLayout(source, allocate);
+    }
+
+    /**
+     * 不补虚拟节点，直接算出 FULL、SPARSE 布局里标签的最大长度，
+     * FULL 布局只统计最后一层，第一层虚拟节点往下每补一层，标签就多一个 "L-" 或者 "R-"，
+     * 所以复制出来的树上深度为 d 的叶子节点（只能是虚拟节点）补到最后一层时长度要加上 2 * (h - d)
+     *
+     * @return
+     */
+    private int labelLengthBeforeFill() {
+        if (this.layoutMode == LayoutMode.SPARSE) {
+            measureLabels(true);
+            int length = this.displayContentMaxLength;
+            this.displayContentMaxLength = 0;
+            return length;
+        }
+        int length = 0;
+        Queue<PrintableNode> access = new ArrayDeque<>();
+        access.offer(this.root);
+        while (!access.isEmpty()) {
+            PrintableNode poll = access.poll();
+            if (poll.printableNodeDepth == this.maxHeight) {
+                length = Math.max(length, poll.toString().length());
+            } else if (Objects.isNull(poll.left) && Objects.isNull(poll.right)) {
+                length = Math.max(length, poll.toString().length() + 2 * (this.maxHeight - poll.printableNodeDepth));
+            }
+            if (Objects.nonNull(poll.left)) {
+                access.offer(poll.left);
+            }
+            if (Objects.nonNull(poll.right)) {
+                access.offer(poll.right);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * 阶段三：分配打印容器，并用空格填满
+     */
+    void allocateContainer() {
+        allocateContainer(null);
+    }
+
+    /**
+     * pool 不为空并且容器足够大时，在 pool 里按行并行填空格
+     *
+     * @param pool
+     */
+    void allocateContainer(ForkJoinPool pool) {
+        measureContainer();
         // 取映射关系中的打印行的最大值，就是最后一行的行数了，起始行是1，不是0
         int maxRow = getMaxLineNumber4Print();
         /**
@@ -357,20 +869,13 @@ public class PrintableTree<E extends Comparable> {
          * |__/_|__\_|_/__|_\__|
          * |_0__|_NIL|NIL_|__5_|
          */
-        this.container = new char[maxRow][this.containerWidth];
-        // 给字符数组初始化值
-        for (int i = 0; i < this.container.length; i++) {
-            for (int j = 0; j < this.container[i].length; j++) {
-                // 初始化容器每个元素
-                this.container[i][j] = ' ';
-            }
+        this.container = Canvas.allocate(maxRow, this.containerWidth, labelsWithin((char) 0xFF));
+        // 用空格初始化容器
+        if (Objects.nonNull(pool) && (long) maxRow * this.containerWidth >= PARALLEL_CELLS) {
+            pool.invoke(new AllocateRowsTask(0, maxRow));
+        } else {
+            this.container.clear(0, maxRow);
         }
-
-        // countPerLevel 代表下一次访问每层第几个节点
-        this.countPerLevel = 1;
-
-        // 构建打印容器
-        buildPrintContainer();
     }
 
     /**
@@ -399,7 +904,11 @@ public class PrintableTree<E extends Comparable> {
      * @return 左偏移量
      */
     private int calculateOffset(PrintableNode node) {
-        double standardLeftOffset = this.containerWidth * node.horizontalOffsetPercent;
+        return calculateOffset(node.horizontalOffsetPercent);
+    }
+
+    private int calculateOffset(double horizontalOffsetPercent) {
+        double standardLeftOffset = this.containerWidth * horizontalOffsetPercent;
         // 在标准左移基础上还要再减去单元块本身长度的二分之一
         return Math.max((int) standardLeftOffset - unitBlockLength / 2, 0);
     }
@@ -435,10 +944,13 @@ public class PrintableTree<E extends Comparable> {
      * @return
      */
     public char[] buildUnitBlock(PrintableNode node) {
+        return buildUnitBlock(Objects.isNull(node) ? null : node.toString());
+    }
+
+    private char[] buildUnitBlock(String nodeContent) {
         char[] unitBlock = new char[unitBlockLength];
         Arrays.fill(unitBlock, ' ');
-        if (Objects.nonNull(node)) {
-            String nodeContent = node.toString();
+        if (Objects.nonNull(nodeContent)) {
             char[] data = nodeContent.toCharArray();
             int dataLen = nodeContent.length();
             int locationIndex = Math.max(unitBlockLength / 2 - dataLen / 2, 0);
@@ -451,6 +963,18 @@ public class PrintableTree<E extends Comparable> {
      * 构建打印容器
      */
     public void buildPrintContainer() {
+        if (this.layoutMode == LayoutMode.SPARSE) {
+            buildSparsePrintContainer();
+            return;
+        }
+        if (this.layoutMode == LayoutMode.COMPACT) {
+            buildCompactPrintContainer();
+            return;
+        }
+        // 上次访问的节点深度，默认从根节点开始访问
+        this.lastAccessDepth = 1;
+        // countPerLevel 代表下一次访问每层第几个节点
+        this.countPerLevel = 1;
         // 等待被访问的节点队列
         Queue<PrintableNode> q = new ConcurrentLinkedQueue<>();
         // 先往队列里塞一个起始节点，这个节点作为驱动节点
@@ -461,7 +985,6 @@ public class PrintableTree<E extends Comparable> {
             PrintableNode poll = q.poll();
             // 处理这个节点
             log.debug("正在处理节点" + poll);
-            char[] unitBlock = buildUnitBlock(poll);
 
             int currentDepth = poll.printableNodeDepth;
             // 当前访问层深度大于上次访问层深度时就代表，访问层下降了一个层
@@ -474,7 +997,10 @@ public class PrintableTree<E extends Comparable> {
             poll.verticalOffsetPercent = calculateVerticalOffsetPercent();
             // 计算节点显示部分在容器内的偏移量
             int currentOffset = calculateOffset(poll);
-            System.arraycopy(unitBlock, 0, this.container[this.depthNodePrintRowMapping.get(this.lastAccessDepth) - 1], currentOffset, unitBlockLength);
+            // 流式输出时没有分配容器，这里只计算坐标
+            if (Objects.nonNull(this.container)) {
+                this.container.put(this.depthNodePrintRowMapping.get(this.lastAccessDepth) - 1, currentOffset, buildUnitBlock(poll));
+            }
             // 保存当前节点的偏移量
             poll.offset = currentOffset;
             // 略过第一层上面的连线
@@ -528,20 +1054,7 @@ public class PrintableTree<E extends Comparable> {
                  *  [7]            [19]
                  * 连线部分就搞定了！
                  */
-                int item = getItemOfGap(this.lastAccessDepth);
-                int startRow = this.depthNodePrintRowMapping.get(this.lastAccessDepth - 1);
-                for (int i = 0; i < item + 1; i++) {
-                    if (this.countPerLevel % 2 == 1) {
-                        if (i != 0) {
-                            this.container[startRow + i][poll.parent.offset + this.unitBlockLength / 2 - i] = '/';
-                        }
-                    } else {
-                        // 这两个区别在于尖顶字符的大小，第一个大点写文件显示的话会好看点，但是在控制台会莫名其妙的偏移，第二个不会在控制台偏移，但是小点，看起来位置会偏上
-//                        this.container[startRow + i][poll.parent.offset + this.unitBlockLength / 2 + i] = i == 0 ? '∧' : '\\';
-                        this.container[startRow + i][poll.parent.offset + this.unitBlockLength / 2 + i] = i == 0 ? '^' : '\\';
-                    }
-                }
-
+                drawConnector(this.lastAccessDepth, poll.parent.offset, this.countPerLevel % 2 == 0);
             }
             // 最后别忘了把每层的节点访问计数器加一
             this.countPerLevel++;
@@ -555,17 +1068,1274 @@ public class PrintableTree<E extends Comparable> {
         }
     }
 
+    /**
+     * 画出节点和父节点之间的连线，左子节点画 "/"，右子节点画 "^" 和 "\\"
+     *
+     * @param depth        子节点的深度
+     * @param parentOffset 父节点的偏移量
+     * @param right        是否右子节点
+     */
+    private void drawConnector(int depth, int parentOffset, boolean right) {
+        if (Objects.isNull(this.container)) {
+            return;
+        }
+        int item = getItemOfGap(depth);
+        int startRow = this.depthNodePrintRowMapping.get(depth - 1);
+        for (int i = 0; i < item + 1; i++) {
+            if (!right) {
+                if (i != 0) {
+                    this.container.put(startRow + i, parentOffset + this.unitBlockLength / 2 - i, '/');
+                }
+            } else {
+                // 这两个区别在于尖顶字符的大小，第一个大点写文件显示的话会好看点，但是在控制台会莫名其妙的偏移，第二个不会在控制台偏移，但是小点，看起来位置会偏上
+//                this.container.put(startRow + i, parentOffset + this.unitBlockLength / 2 + i, i == 0 ? '∧' : '\\');
+                this.container.put(startRow + i, parentOffset + this.unitBlockLength / 2 + i, i == 0 ? '^' : '\\');
+            }
+        }
+    }
+
+    /**
+     * 把一个标签写到它所在深度的打印行上
+     *
+     * @return 标签的偏移量
+     */
+    private int placeUnitBlock(String content, int depth, double horizontalOffsetPercent) {
+        int offset = calculateOffset(horizontalOffsetPercent);
+        if (Objects.nonNull(this.container)) {
+            this.container.put(this.depthNodePrintRowMapping.get(depth) - 1, offset, buildUnitBlock(content));
+        }
+        return offset;
+    }
+
+    /**
+     * 第 depth 层序号为 slot 的节点的水平偏移百分比 = (2 * slot + 1) / 2^depth
+     */
+    private static double horizontalOffsetPercent(int depth, long slot) {
+        return Math.scalb(2.0 * slot + 1, -depth);
+    }
+
+    /**
+     * SPARSE 布局的打印容器构建，只访问真实节点：
+     * 左子节点的序号 = 父节点序号 * 2，右子节点的序号 = 父节点序号 * 2 + 1，由（深度，序号）直接算出水平偏移，
+     * 缺失的子节点不创建对象，当场画一个虚拟的 NIL 标签和连线
+     */
+    private void buildSparsePrintContainer() {
+        buildSparsePrintContainer(this.root, 0);
+    }
+
+    /**
+     * 从 start 开始构建打印容器，start 在它那一层的序号是 slot，有父节点时顺便画出和父节点之间的连线，
+     * FULL 布局的子树也可以用这个方法画，因为满二叉树上没有缺失的子节点，结果和按层序画一样
+     *
+     * @param start
+     * @param slot
+     */
+    private void buildSparsePrintContainer(PrintableNode start, long slot) {
+        Queue<PrintableNode> q = new ArrayDeque<>();
+        start.slot = slot;
+        q.offer(start);
+        while (!q.isEmpty()) {
+            PrintableNode poll = q.poll();
+            paintNode(poll);
+            if (poll.printableNodeDepth == this.maxHeight) {
+                continue;
+            }
+            for (int side = 0; side < 2; side++) {
+                PrintableNode child = side == 0 ? poll.left : poll.right;
+                if (Objects.nonNull(child)) {
+                    child.slot = poll.slot * 2 + side;
+                    q.offer(child);
+                } else {
+                    paintNil(poll, side == 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * 由（深度，序号）算出节点的坐标，写入节点和连到父节点的连线，父节点需要已经画好
+     *
+     * @param node
+     */
+    private void paintNode(PrintableNode node) {
+        int depth = node.printableNodeDepth;
+        node.horizontalOffsetPercent = horizontalOffsetPercent(depth, node.slot);
+        node.verticalOffsetPercent = (double) depth / this.maxHeight;
+        node.offset = placeUnitBlock(node.toString(), depth, node.horizontalOffsetPercent);
+        if (Objects.nonNull(node.parent)) {
+            drawConnector(depth, node.parent.offset, (node.slot & 1) == 1);
+        }
+    }
+
+    /**
+     * 画出 parent 缺失的子节点的 NIL 标签和连线
+     *
+     * @param parent
+     * @param right
+     */
+    private void paintNil(PrintableNode parent, boolean right) {
+        int depth = parent.printableNodeDepth + 1;
+        placeUnitBlock(nilLabel(parent, right), depth, horizontalOffsetPercent(depth, parent.slot * 2 + (right ? 1 : 0)));
+        drawConnector(depth, parent.offset, right);
+    }
+
+    /**
+     * 并行构建打印容器：FULL 和 SPARSE 布局下第 depth 层序号为 slot 的子树正好占 [slot * span, (slot + 1) * span) 这些列，
+     * span = 宽度 / 2^(depth - 1)，子树里的标签、连线以及连到父节点的连线都不会超出这个范围，
+     * 所以左右两棵子树写的是容器上互不重叠的区域，可以拆成任务交给 pool 同时画，
+     * 往下拆到子树个数是并行度的十几倍为止，足够均衡负载，再往下每个任务按 SPARSE 的方式串行画完自己的子树，
+     * 每个节点的坐标只由（深度，序号）决定，写入的字符也都不重叠，所以结果和串行构建的逐字节一致，
+     * COMPACT 布局子树的列范围会互相交错，容器太小时拆任务也不划算，这两种情况直接串行构建
+     *
+     * @param pool 为空时串行构建
+     */
+    public void buildPrintContainer(ForkJoinPool pool) {
+        if (Objects.isNull(pool) || this.layoutMode == LayoutMode.COMPACT || containerCells() < PARALLEL_CELLS) {
+            buildPrintContainer();
+            return;
+        }
+        // 拆到至少有 8 倍并行度的子树为止
+        int forkDepth = 1;
+        while (forkDepth < this.maxHeight && (1L << (forkDepth - 1)) < 8L * pool.getParallelism()) {
+            forkDepth++;
+        }
+        this.root.slot = 0;
+        pool.invoke(new RasterizeTask(this.root, forkDepth));
+    }
+
+    /**
+     * 画一棵子树的任务，子树根节点的深度小于 forkDepth 时只画根节点，左右子树各拆成一个任务
+     */
+    private class RasterizeTask extends RecursiveAction {
+
+        private final PrintableNode node;
+
+        private final int forkDepth;
+
+        private RasterizeTask(PrintableNode node, int forkDepth) {
+            this.node = node;
+            this.forkDepth = forkDepth;
+        }
+
+        @Override
+        protected void compute() {
+            if (node.printableNodeDepth >= forkDepth) {
+                buildSparsePrintContainer(node, node.slot);
+                return;
+            }
+            paintNode(node);
+            List<RasterizeTask> tasks = new ArrayList<>(2);
+            for (int side = 0; side < 2; side++) {
+                PrintableNode child = side == 0 ? node.left : node.right;
+                if (Objects.nonNull(child)) {
+                    child.slot = node.slot * 2 + side;
+                    tasks.add(new RasterizeTask(child, forkDepth));
+                } else {
+                    paintNil(node, side == 1);
+                }
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    /**
+     * 把 [from, to) 这些行填满空格的任务，行数多时对半拆开
+     */
+    private class AllocateRowsTask extends RecursiveAction {
+
+        private final int from;
+
+        private final int to;
+
+        private AllocateRowsTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1 || (long) (to - from) * containerWidth <= PARALLEL_CELLS) {
+                container.clear(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new AllocateRowsTask(from, mid), new AllocateRowsTask(mid, to));
+        }
+    }
+
+    /**
+     * COMPACT 布局的打印容器构建，坐标已经在 {@link #measureCompactContainer()} 里算好了，
+     * 这里只负责把节点写到第一行，把 "_" 横线从节点内容两侧一直画到子节点中心的正上方，
+     * 再在第二行子节点中心的位置画 "/" 或者 "\\"
+     */
+    private void buildCompactPrintContainer() {
+        if (Objects.isNull(this.container)) {
+            return;
+        }
+        Queue<PrintableNode> q = new ArrayDeque<>();
+        q.offer(this.root);
+        while (!q.isEmpty()) {
+            PrintableNode poll = q.poll();
+            int row = this.depthNodePrintRowMapping.get(poll.printableNodeDepth) - 1;
+            drawCompactNode(row, poll);
+            if (Objects.nonNull(poll.left)) {
+                this.container.put(row + 1, poll.left.offset + this.unitBlockLength / 2, '/');
+                q.offer(poll.left);
+            }
+            if (Objects.nonNull(poll.right)) {
+                this.container.put(row + 1, poll.right.offset + this.unitBlockLength / 2, '\\');
+                q.offer(poll.right);
+            }
+        }
+    }
+
+    /**
+     * 和 {@link #drawCompactNode(char[], int, PrintableNode)} 一样，只是直接写到打印容器的第 row 行上
+     */
+    private void drawCompactNode(int row, PrintableNode node) {
+        String content = node.toString();
+        this.container.put(row, node.offset, buildUnitBlock(content));
+        int contentStart = node.offset + Math.max(this.unitBlockLength / 2 - content.length() / 2, 0);
+        int contentEnd = contentStart + content.length();
+        if (Objects.nonNull(node.left)) {
+            this.container.fill(row, Math.min(node.left.offset + this.unitBlockLength / 2 + 1, contentStart), contentStart, '_');
+        }
+        if (Objects.nonNull(node.right)) {
+            this.container.fill(row, contentEnd, Math.max(node.right.offset + this.unitBlockLength / 2, contentEnd), '_');
+        }
+    }
+
+    /**
+     * 在节点所在的行上写入 COMPACT 布局的节点，以及伸向子节点中心正上方的 "_" 横线
+     *
+     * @param row     画布上从 colFrom 列开始的一段
+     * @param colFrom
+     * @param node
+     */
+    private void drawCompactNode(char[] row, int colFrom, PrintableNode node) {
+        String content = node.toString();
+        putBlock(row, colFrom, buildUnitBlock(content), node.offset);
+        int contentStart = node.offset + Math.max(this.unitBlockLength / 2 - content.length() / 2, 0);
+        int contentEnd = contentStart + content.length();
+        if (Objects.nonNull(node.left)) {
+            int from = Math.max(node.left.offset + this.unitBlockLength / 2 + 1, colFrom);
+            int to = Math.min(contentStart, colFrom + row.length);
+            for (int i = from; i < to; i++) {
+                row[i - colFrom] = '_';
+            }
+        }
+        if (Objects.nonNull(node.right)) {
+            int from = Math.max(contentEnd, colFrom);
+            int to = Math.min(node.right.offset + this.unitBlockLength / 2, colFrom + row.length);
+            for (int i = from; i < to; i++) {
+                row[i - colFrom] = '_';
+            }
+        }
+    }
+
+    /**
+     * 把单元块写到一行里，row 只是画布上从 colFrom 列开始的一段，超出这一段的部分直接裁掉
+     *
+     * @param row
+     * @param colFrom
+     * @param block
+     * @param offset  单元块在画布上的起始列
+     */
+    private static void putBlock(char[] row, int colFrom, char[] block, int offset) {
+        int from = Math.max(offset, colFrom);
+        int to = Math.min(offset + block.length, colFrom + row.length);
+        if (from < to) {
+            System.arraycopy(block, from - offset, row, from - colFrom, to - from);
+        }
+    }
+
+    private static void put(char[] row, int colFrom, int col, char c) {
+        if (col >= colFrom && col < colFrom + row.length) {
+            row[col - colFrom] = c;
+        }
+    }
+
+    /**
+     * 把整个打印容器拼成一个字符串，每行之间用换行符分隔
+     *
+     * @return
+     */
+    String render() {
+        refresh();
+        if (Objects.isNull(this.root)) {
+            return "";
+        }
+        long length = (long) this.container.rows * (this.container.width + 1);
+        if (length > Canvas.MAX_CELLS) {
+            throw new IllegalStateException("打印内容有 " + length + " 个字符，超出单个字符串的上限，请用 writeTo 或者 map 输出");
+        }
+        StringBuilder builder = new StringBuilder((int) length);
+        for (int i = 0; i < this.container.rows; i++) {
+            this.container.appendRow(builder, i);
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 流式输出：不分配打印容器，一行一行地生成打印内容写到 out 里，内容和 {@link #render()} 完全一致，
+     * 任意时刻只持有一行字符和相邻两层的节点列表，峰值内存是 O(宽度) 而不是 O(宽度 * 行数)，
+     * 适合把很大的树直接写到文件或者 socket 里
+     *
+     * @param root
+     * @param layoutMode
+     * @param out        写完之后不会关闭
+     * @param <E>
+     * @throws IOException
+     */
+    public static <E extends Comparable> void write(INode<E> root, LayoutMode layoutMode, Writer out) throws IOException {
+        if (Objects.isNull(root)) {
+            return;
+        }
+        layout(root, layoutMode).writeTo(out);
+    }
+
+    /**
+     * 只计算坐标、不分配打印容器的可打印树，用于流式输出 {@link #writeTo(Writer)} 和视口 {@link #viewport(int, int, int, int)}
+     *
+     * @param root       不能为空
+     * @param layoutMode
+     * @param <E>
+     * @return
+     */
+    public static <E extends Comparable> PrintableTree<E> layout(INode<E> root, LayoutMode layoutMode) {
+        return layout(root, layoutMode, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 同 {@link #layout(INode, LayoutMode)}，只排布前 maxDepth 层，更深的子树折叠成摘要节点
+     */
+    public static <E extends Comparable> PrintableTree<E> layout(INode<E> root, LayoutMode layoutMode, int maxDepth) {
+        PrintableTree<E> tree = new PrintableTree<>(layoutMode, maxDepth);
+        tree.cloneSource(root);
+        tree.fitLayout(root, false);
+        tree.fillNil();
+        tree.measureContainer();
+        // 没有分配容器，只计算坐标
+        tree.buildPrintContainer();
+        return tree;
+    }
+
+    /**
+     * 以 UTF-8 编码流式输出到字节流，写完之后只 flush，不关闭
+     */
+    public static <E extends Comparable> void write(INode<E> root, LayoutMode layoutMode, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        write(root, layoutMode, writer);
+        writer.flush();
+    }
+
+    /**
+     * 以 UTF-8 编码流式输出到通道（文件、socket），写完之后只 flush，不关闭
+     */
+    public static <E extends Comparable> void write(INode<E> root, LayoutMode layoutMode, WritableByteChannel out) throws IOException {
+        Writer writer = Channels.newWriter(out, StandardCharsets.UTF_8.newEncoder(), 8192);
+        write(root, layoutMode, writer);
+        writer.flush();
+    }
+
+    /**
+     * 以 UTF-8 编码输出到通道，写完之后不关闭，已经分配了打印容器时直接把容器写出去，
+     * 只有 ASCII 字符的行直接包装容器的数组，不经过编码器也不复制，没有分配容器时和流式输出 {@link #writeTo(Writer)} 一样
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(WritableByteChannel out) throws IOException {
+        refresh();
+        if (Objects.isNull(this.root)) {
+            return;
+        }
+        if (Objects.nonNull(this.container)) {
+            this.container.write(out);
+            return;
+        }
+        Writer writer = Channels.newWriter(out, StandardCharsets.UTF_8.newEncoder(), 8192);
+        writeTo(writer);
+        writer.flush();
+    }
+
+    /**
+     * 以内存映射的方式输出到文件，见 {@link #mapTo(FileChannel)}
+     *
+     * @param root
+     * @param layoutMode
+     * @param maxDepth
+     * @param out        需要以读写方式打开，写完之后不会关闭
+     * @param <E>
+     * @return 写入的字节数
+     * @throws IOException
+     */
+    public static <E extends Comparable> long map(INode<E> root, LayoutMode layoutMode, int maxDepth, FileChannel out) throws IOException {
+        if (Objects.isNull(root)) {
+            return 0;
+        }
+        return layout(root, layoutMode, maxDepth).mapTo(out);
+    }
+
+    /**
+     * 内存映射输出：从通道的当前位置开始，把整个画布按行数 x (宽度 + 1) 个字节映射进来，每次最多映射 1GB，
+     * 节点行逐字节写进映射区，连线行先整块填空格再直接写入连线字符，不经过打印容器、{@link String} 和编码器，
+     * 堆上只有一行的缓冲区，几个 GB 的画布也不会给堆造成压力，脏页由操作系统写回文件，
+     * 内容和 {@link #render()} 的 UTF-8 编码逐字节一致，写完之后通道的位置移到末尾，
+     * 只有所有标签都是 ASCII 字符时每行的字节数才固定，否则退回到 {@link #writeTo(Writer)} 流式输出
+     *
+     * @param out 需要以读写方式打开，写完之后不会关闭
+     * @return 写入的字节数
+     * @throws IOException
+     */
+    public long mapTo(FileChannel out) throws IOException {
+        return mapTo(out, MAP_WINDOW);
+    }
+
+    long mapTo(FileChannel out, long window) throws IOException {
+        refresh();
+        if (Objects.isNull(this.root)) {
+            return 0;
+        }
+        long start = out.position();
+        if (!labelsWithin((char) 0x7F)) {
+            Writer writer = Channels.newWriter(out, StandardCharsets.UTF_8.newEncoder(), 8192);
+            writeTo(writer);
+            writer.flush();
+            return out.position() - start;
+        }
+        MappedRows rows = new MappedRows(out, start, window);
+        emitRows(rows);
+        out.position(rows.position);
+        return rows.position - start;
+    }
+
+    /**
+     * 所有要画出来的标签里的字符是否都不超过 max，SPARSE 的虚拟 NIL 标签只比父节点的标签多几个 ASCII 字符，不用单独检查
+     */
+    private boolean labelsWithin(char max) {
+        return labelsWithin(this.root, max);
+    }
+
+    private static boolean labelsWithin(String label, char max) {
+        for (int i = 0; i < label.length(); i++) {
+            if (label.charAt(i) > max) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean labelsWithin(PrintableNode start, char max) {
+        Queue<PrintableNode> access = new ArrayDeque<>();
+        access.offer(start);
+        while (!access.isEmpty()) {
+            PrintableNode poll = access.poll();
+            if (!labelsWithin(poll.toString(), max)) {
+                return false;
+            }
+            if (Objects.nonNull(poll.left)) {
+                access.offer(poll.left);
+            }
+            if (Objects.nonNull(poll.right)) {
+                access.offer(poll.right);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 按行写入文件映射区，映射区用完了就按整行对齐映射下一段
+     */
+    private final class MappedRows extends RowTarget {
+
+        private final FileChannel channel;
+
+        // 每行的字节数，包括换行符
+        private final int lineBytes;
+
+        // 每段映射区最多容纳的行数
+        private final long rowsPerWindow;
+
+        // 文件里最后一行的结束位置
+        private final long end;
+
+        // 下一行在文件里的位置
+        private long position;
+
+        private MappedByteBuffer buffer;
+
+        // 当前映射区在文件里的结束位置
+        private long bufferEnd;
+
+        // 一整行空格加换行符，连线行先整块写入这个
+        private final byte[] blank;
+
+        // 节点行转换成字节的缓冲区
+        private final byte[] bytes;
+
+        private MappedRows(FileChannel channel, long start, long window) {
+            if (containerWidth >= Integer.MAX_VALUE) {
+                throw new IllegalStateException("画布宽度 " + containerWidth + " 超出单次映射的上限");
+            }
+            this.channel = channel;
+            this.lineBytes = containerWidth + 1;
+            this.rowsPerWindow = Math.max(1, window / this.lineBytes);
+            this.position = start;
+            this.end = start + (long) getRowCount() * this.lineBytes;
+            this.bufferEnd = start;
+            this.blank = new byte[this.lineBytes];
+            Arrays.fill(this.blank, (byte) ' ');
+            this.blank[containerWidth] = '\n';
+            this.bytes = new byte[this.lineBytes];
+            this.bytes[containerWidth] = '\n';
+        }
+
+        /**
+         * 下一行在当前映射区里的起始下标，当前映射区放不下时映射下一段
+         */
+        private int next() throws IOException {
+            if (this.position >= this.bufferEnd) {
+                long size = Math.min(this.rowsPerWindow * this.lineBytes, this.end - this.position);
+                this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, this.position, size);
+                this.bufferEnd = this.position + size;
+            }
+            int base = (int) (this.position - (this.bufferEnd - this.buffer.capacity()));
+            this.position += this.lineBytes;
+            return base;
+        }
+
+        @Override
+        void row(char[] row) throws IOException {
+            int base = next();
+            for (int j = 0; j < row.length; j++) {
+                this.bytes[j] = (byte) row[j];
+            }
+            this.buffer.position(base);
+            this.buffer.put(this.bytes);
+        }
+
+        @Override
+        void connectorRow(char[] row, List<PrintableNode> level, int i) throws IOException {
+            int base = next();
+            this.buffer.position(base);
+            this.buffer.put(this.blank);
+            for (PrintableNode node : level) {
+                int center = base + node.offset + unitBlockLength / 2;
+                if (i != 0) {
+                    this.buffer.put(center - i, (byte) '/');
+                }
+                this.buffer.put(center + i, (byte) (i == 0 ? '^' : '\\'));
+            }
+        }
+    }
+
+    /**
+     * 按层生成打印行写到 out 里，每行以换行符结尾，坐标需要已经计算好，
+     * 每一层先写节点所在的行，再写这一层和下一层之间的连线行，
+     * 同一行里的写入顺序和 {@link #buildPrintContainer()} 往容器里写的顺序一致，所以重叠的地方结果也一样
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(Writer out) throws IOException {
+        refresh();
+        if (Objects.isNull(this.root)) {
+            return;
+        }
+        emitRows(new RowTarget() {
+            @Override
+            void row(char[] row) throws IOException {
+                out.write(row);
+                out.write('\n');
+            }
+
+            @Override
+            void connectorRow(char[] row, List<PrintableNode> level, int i) throws IOException {
+                Arrays.fill(row, ' ');
+                for (PrintableNode node : level) {
+                    int center = node.offset + unitBlockLength / 2;
+                    if (i != 0) {
+                        row[center - i] = '/';
+                    }
+                    row[center + i] = i == 0 ? '^' : '\\';
+                }
+                row(row);
+            }
+        });
+    }
+
+    /**
+     * 逐行输出的目标，节点行给出整行字符，FULL 和 SPARSE 布局的连线行只给出这一层的节点和行号，由目标自己决定怎么填
+     */
+    private abstract class RowTarget {
+
+        abstract void row(char[] row) throws IOException;
+
+        /**
+         * 第 i 行连线，i 为 0 时是节点正下方的 "^"，之后每行 "/" 往左一格、"\\" 往右一格
+         *
+         * @param row   可以用来生成这一行的缓冲区
+         * @param level 这一层的节点
+         * @param i
+         * @throws IOException
+         */
+        abstract void connectorRow(char[] row, List<PrintableNode> level, int i) throws IOException;
+    }
+
+    /**
+     * 按层生成打印行交给 target，每一层先给节点所在的行，再给这一层和下一层之间的连线行
+     *
+     * @param target
+     * @throws IOException
+     */
+    private void emitRows(RowTarget target) throws IOException {
+        char[] row = new char[this.containerWidth];
+        List<PrintableNode> parents = Collections.emptyList();
+        List<PrintableNode> level = Collections.singletonList(this.root);
+        for (int depth = 1; ; depth++) {
+            fillNodeRow(row, depth, parents, level);
+            target.row(row);
+            if (depth == this.maxHeight) {
+                return;
+            }
+            if (this.layoutMode == LayoutMode.COMPACT) {
+                Arrays.fill(row, ' ');
+                for (PrintableNode node : level) {
+                    if (Objects.nonNull(node.left)) {
+                        row[node.left.offset + this.unitBlockLength / 2] = '/';
+                    }
+                    if (Objects.nonNull(node.right)) {
+                        row[node.right.offset + this.unitBlockLength / 2] = '\\';
+                    }
+                }
+                target.row(row);
+            } else {
+                // FULL 和 SPARSE 布局里，没到最底层的节点左右两边都要画连线，SPARSE 缺失的子节点连到虚拟的 NIL 标签
+                int item = getItemOfGap(depth + 1);
+                for (int i = 0; i < item + 1; i++) {
+                    target.connectorRow(row, level, i);
+                }
+            }
+            List<PrintableNode> next = new ArrayList<>(level.size() * 2);
+            for (PrintableNode node : level) {
+                if (Objects.nonNull(node.left)) {
+                    next.add(node.left);
+                }
+                if (Objects.nonNull(node.right)) {
+                    next.add(node.right);
+                }
+            }
+            parents = level;
+            level = next;
+        }
+    }
+
+    /**
+     * 生成第 depth 层节点所在的行
+     *
+     * @param row
+     * @param depth
+     * @param parents 上一层的节点
+     * @param level   这一层的节点
+     */
+    private void fillNodeRow(char[] row, int depth, List<PrintableNode> parents, List<PrintableNode> level) {
+        Arrays.fill(row, ' ');
+        if (this.layoutMode == LayoutMode.SPARSE) {
+            // 构建容器时虚拟的 NIL 标签是在访问父节点时写的，比这一层的真实节点早
+            for (PrintableNode parent : parents) {
+                if (Objects.isNull(parent.left)) {
+                    copyUnitBlock(row, nilLabel(parent, false), horizontalOffsetPercent(depth, parent.slot * 2));
+                }
+                if (Objects.isNull(parent.right)) {
+                    copyUnitBlock(row, nilLabel(parent, true), horizontalOffsetPercent(depth, parent.slot * 2 + 1));
+                }
+            }
+        }
+        for (PrintableNode node : level) {
+            if (this.layoutMode == LayoutMode.COMPACT) {
+                drawCompactNode(row, 0, node);
+            } else {
+                System.arraycopy(buildUnitBlock(node), 0, row, node.offset, this.unitBlockLength);
+            }
+        }
+    }
+
+    private void copyUnitBlock(char[] row, String content, double horizontalOffsetPercent) {
+        System.arraycopy(buildUnitBlock(content), 0, row, calculateOffset(horizontalOffsetPercent), this.unitBlockLength);
+    }
+
+    /**
+     * 画布的总行数
+     *
+     * @return
+     */
+    public int getRowCount() {
+        return Objects.isNull(this.root) ? 0 : getMaxLineNumber4Print();
+    }
+
+    /**
+     * 第 depth 层节点所在的行，从 0 开始
+     */
+    int rowOf(int depth) {
+        return this.depthNodePrintRowMapping.get(depth) - 1;
+    }
+
+    /**
+     * 视口：只生成画布上 [rowFrom, rowTo) 行、[colFrom, colTo) 列这个窗口里的内容，和 {@link #render()} 对应的部分完全一致，
+     * 坐标需要已经计算好，不需要分配打印容器，
+     * 从根节点开始按层访问，只有子树的列范围和窗口相交、并且节点所在的行在窗口底部之上时才往下走，
+     * 每一层最多访问窗口宽度能容纳的几个子树，连线也只画落在窗口里的那几行，
+     * 所以代价和窗口面积加上树高成正比，和整棵树的大小无关
+     *
+     * @param rowFrom
+     * @param rowTo
+     * @param colFrom
+     * @param colTo
+     * @return 窗口里的字符，(rowTo - rowFrom) 行，每行 (colTo - colFrom) 个字符
+     */
+    public char[][] viewport(int rowFrom, int rowTo, int colFrom, int colTo) {
+        refresh();
+        int rows = getRowCount();
+        if (rowFrom < 0 || rowFrom > rowTo || rowTo > rows || colFrom < 0 || colFrom > colTo || colTo > this.containerWidth) {
+            throw new IllegalArgumentException("视口 [" + rowFrom + ", " + rowTo + ") x [" + colFrom + ", " + colTo + ") 超出画布 "
+                    + rows + " 行 x " + this.containerWidth + " 列");
+        }
+        char[][] window = new char[rowTo - rowFrom][colTo - colFrom];
+        for (char[] line : window) {
+            Arrays.fill(line, ' ');
+        }
+        if (rowFrom == rowTo || colFrom == colTo) {
+            return window;
+        }
+        // 访问顺序和构建容器时一样是广度优先，同一行里重叠的地方后写的覆盖先写的，结果也就一样
+        Queue<PrintableNode> q = new ArrayDeque<>();
+        q.offer(this.root);
+        while (!q.isEmpty()) {
+            PrintableNode poll = q.poll();
+            int depth = poll.printableNodeDepth;
+            int row = rowOf(depth);
+            if (row >= rowFrom) {
+                if (this.layoutMode == LayoutMode.COMPACT) {
+                    drawCompactNode(window[row - rowFrom], colFrom, poll);
+                } else {
+                    putBlock(window[row - rowFrom], colFrom, buildUnitBlock(poll), poll.offset);
+                }
+            }
+            if (depth == this.maxHeight) {
+                continue;
+            }
+            drawViewportConnectors(window, rowFrom, colFrom, poll);
+            if (rowOf(depth + 1) >= rowTo) {
+                continue;
+            }
+            if (Objects.nonNull(poll.left) && intersects(poll.left, colFrom, colTo)) {
+                q.offer(poll.left);
+            }
+            if (Objects.nonNull(poll.right) && intersects(poll.right, colFrom, colTo)) {
+                q.offer(poll.right);
+            }
+        }
+        return window;
+    }
+
+    /**
+     * 在视口里画出节点和子节点之间的连线，SPARSE 布局还要画出缺失子节点的 NIL 标签，只处理落在视口里的行
+     */
+    private void drawViewportConnectors(char[][] window, int rowFrom, int colFrom, PrintableNode node) {
+        int depth = node.printableNodeDepth;
+        int center = node.offset + this.unitBlockLength / 2;
+        int startRow = rowOf(depth) + 1;
+        if (this.layoutMode == LayoutMode.COMPACT) {
+            if (startRow >= rowFrom && startRow < rowFrom + window.length) {
+                if (Objects.nonNull(node.left)) {
+                    put(window[startRow - rowFrom], colFrom, node.left.offset + this.unitBlockLength / 2, '/');
+                }
+                if (Objects.nonNull(node.right)) {
+                    put(window[startRow - rowFrom], colFrom, node.right.offset + this.unitBlockLength / 2, '\\');
+                }
+            }
+            return;
+        }
+        // FULL 和 SPARSE 布局里，没到最底层的节点左右两边都有连线
+        int item = getItemOfGap(depth + 1);
+        int from = Math.max(0, rowFrom - startRow);
+        int to = Math.min(item, rowFrom + window.length - 1 - startRow);
+        for (int i = from; i <= to; i++) {
+            char[] line = window[startRow + i - rowFrom];
+            if (i != 0) {
+                put(line, colFrom, center - i, '/');
+            }
+            put(line, colFrom, center + i, i == 0 ? '^' : '\\');
+        }
+        int childRow = rowOf(depth + 1);
+        if (this.layoutMode == LayoutMode.SPARSE && childRow >= rowFrom && childRow < rowFrom + window.length) {
+            if (Objects.isNull(node.left)) {
+                putBlock(window[childRow - rowFrom], colFrom, buildUnitBlock(nilLabel(node, false)), calculateOffset(horizontalOffsetPercent(depth + 1, node.slot * 2)));
+            }
+            if (Objects.isNull(node.right)) {
+                putBlock(window[childRow - rowFrom], colFrom, buildUnitBlock(nilLabel(node, true)), calculateOffset(horizontalOffsetPercent(depth + 1, node.slot * 2 + 1)));
+            }
+        }
+    }
+
+    /**
+     * 以 node 为根的子树占用的列范围是否和 [colFrom, colTo) 相交，
+     * FULL 和 SPARSE 布局里第 d 层的子树占画布宽度的 1/2^(d-1)，节点正好在中间，
+     * COMPACT 布局用排布时记下的子树左右边界，两边各多留一个单元块的余量，避免取整误差漏掉边上的标签
+     */
+    private boolean intersects(PrintableNode node, int colFrom, int colTo) {
+        long from;
+        long to;
+        if (this.layoutMode == LayoutMode.COMPACT) {
+            int center = node.offset + this.unitBlockLength / 2;
+            from = (long) center + node.leftExtent;
+            to = (long) center + node.rightExtent;
+        } else {
+            double half = Math.scalb(1.0, -node.printableNodeDepth);
+            from = (long) Math.floor((node.horizontalOffsetPercent - half) * this.containerWidth);
+            to = (long) Math.ceil((node.horizontalOffsetPercent + half) * this.containerWidth);
+        }
+        return from - this.unitBlockLength < colTo && to + this.unitBlockLength > colFrom;
+    }
+
+    /**
+     * 水平偏移百分比在 [horizontalFrom, horizontalTo]、垂直偏移百分比在 [verticalFrom, verticalTo] 之内的节点，按层序排列，
+     * 和 {@link #viewport(int, int, int, int)} 一样只访问和窗口相交的子树，给网页平移、缩放时只取看得见的节点用
+     *
+     * @param horizontalFrom
+     * @param horizontalTo
+     * @param verticalFrom
+     * @param verticalTo
+     * @return
+     */
+    public List<PrintableNode> nodesWithin(double horizontalFrom, double horizontalTo, double verticalFrom, double verticalTo) {
+        refresh();
+        List<PrintableNode> nodes = new ArrayList<>();
+        if (Objects.isNull(this.root)) {
+            return nodes;
+        }
+        int colFrom = (int) Math.floor(horizontalFrom * this.containerWidth);
+        int colTo = (int) Math.ceil(horizontalTo * this.containerWidth);
+        Queue<PrintableNode> q = new ArrayDeque<>();
+        q.offer(this.root);
+        while (!q.isEmpty()) {
+            PrintableNode poll = q.poll();
+            if (poll.horizontalOffsetPercent >= horizontalFrom && poll.horizontalOffsetPercent <= horizontalTo
+                    && poll.verticalOffsetPercent >= verticalFrom && poll.verticalOffsetPercent <= verticalTo) {
+                nodes.add(poll);
+            }
+            // 垂直偏移随深度递增，下一层已经在窗口下面就不用再往下走了
+            if ((double) (poll.printableNodeDepth + 1) / this.maxHeight > verticalTo) {
+                continue;
+            }
+            if (Objects.nonNull(poll.left) && intersects(poll.left, colFrom, colTo)) {
+                q.offer(poll.left);
+            }
+            if (Objects.nonNull(poll.right) && intersects(poll.right, colFrom, colTo)) {
+                q.offer(poll.right);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * 订阅一棵平衡二叉树：先完整构建一次，之后源树每次插入、删除只记下结构变化的子树在树上的位置，
+     * 下次打印之前 {@link #refresh()} 只重新复制、重新画这几棵子树，
+     * 树高变了（画布的行数和宽度都跟着变）、标签的最大长度变了（单元块的长度跟着变）或者根节点位置变了才完整重建，
+     * COMPACT 布局下一个节点变了会挤动整棵树，所以总是完整重建
+     *
+     * @param source
+     * @param layoutMode
+     * @param <E>
+     * @return
+     */
+    public static <E extends Comparable> PrintableTree<E> subscribe(BalanceBinarySearchTree<E> source, LayoutMode layoutMode) {
+        return subscribe(source, layoutMode, Integer.MAX_VALUE);
+    }
+
+    public static <E extends Comparable> PrintableTree<E> subscribe(BalanceBinarySearchTree<E> source, LayoutMode layoutMode, int maxDepth) {
+        PrintableTree<E> tree = new PrintableTree<>(layoutMode, maxDepth);
+        tree.subscription = tree.new Subscription(source);
+        source.addListener(tree.subscription);
+        tree.subscription.rebuild();
+        return tree;
+    }
+
+    /**
+     * 取消订阅，之后就是一棵普通的可打印树，停在取消时的样子
+     */
+    public void unsubscribe() {
+        if (Objects.nonNull(this.subscription)) {
+            this.subscription.source.removeListener(this.subscription);
+            this.subscription = null;
+        }
+    }
+
+    /**
+     * 把订阅以来源树的变化同步过来，打印、流式输出、视口之前都会先调用，没有订阅或者没有变化时什么也不做
+     */
+    public void refresh() {
+        if (Objects.nonNull(this.subscription)) {
+            this.subscription.refresh();
+        }
+    }
+
+    /**
+     * 订阅以来完整重建的次数，包括第一次构建
+     */
+    int getRebuildCount() {
+        return Objects.isNull(this.subscription) ? 0 : this.subscription.rebuildCount;
+    }
+
+    /**
+     * 位置按堆的方式编号：根节点是 1，编号为 i 的节点左子节点是 2i，右子节点是 2i + 1，
+     * 编号的二进制位数就是深度，去掉最高位之后从高到低每一位就是从根节点往下走的方向
+     *
+     * @param node
+     * @return 深度超过 62 时返回 -1
+     */
+    private static long positionOf(INode<?> node) {
+        long path = 0;
+        int depth = 0;
+        for (INode<?> child = node, parent = node.getParent(); Objects.nonNull(parent); child = parent, parent = parent.getParent()) {
+            if (++depth > 62) {
+                return -1;
+            }
+            if (parent.getRight() == child) {
+                path |= 1L << (depth - 1);
+            }
+        }
+        return (1L << depth) | path;
+    }
+
+    private static int depthOf(long position) {
+        return 64 - Long.numberOfLeadingZeros(position);
+    }
+
+    /**
+     * 从 root 开始沿着 position 的路径往下走到第 depth 层，走到空节点就停下
+     */
+    private static INode<?> walk(INode<?> root, long position, int depth) {
+        INode<?> node = root;
+        for (int bit = depthOf(position) - 2; bit >= depthOf(position) - depth && Objects.nonNull(node); bit--) {
+            node = ((position >> bit) & 1) == 1 ? node.getRight() : node.getLeft();
+        }
+        return node;
+    }
+
+    /**
+     * 订阅关系：监听源树的结构变化，记下变化的位置，等到 {@link #refresh()} 时再统一处理，
+     * 回调时树可能还没有平衡完，但是每一步修改都只发生在回调给出的那棵子树里面，
+     * 所以这些位置的子树之外，源树和上次同步时完全一样（祖先节点的高度和子树大小除外，它们只影响摘要节点和树高）
+     */
+    private class Subscription implements TreeListener<E> {
+
+        private final BalanceBinarySearchTree<E> source;
+
+        // 结构变化的子树的位置
+        private final Set<Long> restructured = new HashSet<>();
+
+        // 只换了数据的节点的位置
+        private final Set<Long> relabeled = new HashSet<>();
+
+        // 参与计算单元块长度的每种标签长度各有几个，最大的那个决定单元块的长度
+        private final TreeMap<Integer, Integer> labelLengths = new TreeMap<>();
+
+        // 是否需要完整重建
+        private boolean rebuild;
+
+        // 完整重建的次数
+        private int rebuildCount;
+
+        private Subscription(BalanceBinarySearchTree<E> source) {
+            this.source = source;
+        }
+
+        @Override
+        public void restructured(INode<E> subtree) {
+            long position = positionOf(subtree);
+            if (position < 0) {
+                this.rebuild = true;
+            } else {
+                this.restructured.add(position);
+            }
+        }
+
+        @Override
+        public void relabeled(INode<E> node) {
+            long position = positionOf(node);
+            if (position < 0) {
+                this.rebuild = true;
+            } else {
+                this.relabeled.add(position);
+            }
+        }
+
+        @Override
+        public void rebuilt() {
+            this.rebuild = true;
+        }
+
+        private void refresh() {
+            if (!this.rebuild && this.restructured.isEmpty() && this.relabeled.isEmpty()) {
+                return;
+            }
+            INode<E> sourceRoot = this.source.getRoot();
+            if (this.rebuild || layoutMode == LayoutMode.COMPACT || Objects.isNull(sourceRoot) || Objects.isNull(root)
+                    || boundedHeight(sourceRoot) != maxHeight || !patch(sourceRoot)) {
+                rebuild();
+            }
+            this.restructured.clear();
+            this.relabeled.clear();
+            this.rebuild = false;
+        }
+
+        private int boundedHeight(INode<E> sourceRoot) {
+            int height = sourceRoot.getHeight();
+            return height > maxDepth ? maxDepth + 1 : height;
+        }
+
+        /**
+         * 完整重建，和构造方法的四个阶段一样
+         */
+        private void rebuild() {
+            this.rebuildCount++;
+            root = null;
+            container = null;
+            displayContentMaxLength = 0;
+            this.labelLengths.clear();
+            INode<E> sourceRoot = this.source.getRoot();
+            if (Objects.isNull(sourceRoot)) {
+                return;
+            }
+            cloneSource(sourceRoot);
+            fitLayout(sourceRoot, true);
+            fillNil();
+            allocateContainer();
+            buildPrintContainer();
+            if (layoutMode != LayoutMode.COMPACT) {
+                countLabels(root, 1);
+            }
+        }
+
+        /**
+         * 只替换、重画变化的子树
+         *
+         * @param sourceRoot
+         * @return 单元块的长度变了或者遇到意料之外的状态，需要完整重建时返回 false
+         */
+        private boolean patch(INode<E> sourceRoot) {
+            Set<Long> subtrees = new HashSet<>();
+            for (long position : this.restructured) {
+                subtrees.add(anchor(sourceRoot, position));
+            }
+            List<Long> labels = new ArrayList<>();
+            for (long position : this.relabeled) {
+                int depth = depthOf(position);
+                INode<?> node = walk(sourceRoot, position, depth);
+                // 摘要节点，或者有虚拟 NIL 子节点（它们的标签带着父节点的数据），都当作结构变化处理
+                if (depth > maxDepth || Objects.isNull(node)
+                        || depth < maxHeight && (Objects.isNull(node.getLeft()) || Objects.isNull(node.getRight()))) {
+                    subtrees.add(anchor(sourceRoot, position));
+                } else {
+                    labels.add(position);
+                }
+            }
+            // 祖先节点的子树已经包含了的位置不用再单独处理
+            subtrees.removeIf(position -> covered(subtrees, position >> 1));
+            labels.removeIf(position -> covered(subtrees, position));
+            if (subtrees.contains(1L)) {
+                return false;
+            }
+            for (long position : subtrees) {
+                if (!replace(sourceRoot, position)) {
+                    return false;
+                }
+            }
+            for (long position : labels) {
+                if (!relabel(sourceRoot, position)) {
+                    return false;
+                }
+            }
+            if (this.labelLengths.isEmpty() || this.labelLengths.lastKey() + 2 != unitBlockLength) {
+                return false;
+            }
+            displayContentMaxLength = this.labelLengths.lastKey();
+            for (long position : subtrees) {
+                redrawSubtree(position);
+            }
+            for (long position : labels) {
+                redrawLabel(position);
+            }
+            return true;
+        }
+
+        /**
+         * 把位置限制在可打印树的范围内：比最后一层还深的位置换成它在最后一层的祖先（摘要节点），
+         * 父节点在源树上已经不存在的位置换成最深的那个还存在的节点的空子节点
+         */
+        private long anchor(INode<E> sourceRoot, long position) {
+            int depth = depthOf(position);
+            if (depth > maxHeight) {
+                position >>= depth - maxHeight;
+                depth = maxHeight;
+            }
+            for (int d = 2; d < depth; d++) {
+                if (Objects.isNull(walk(sourceRoot, position, d))) {
+                    return position >> (depth - d);
+                }
+            }
+            return position;
+        }
+
+        private boolean covered(Set<Long> subtrees, long position) {
+            for (; position >= 1; position >>= 1) {
+                if (subtrees.contains(position)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 用源树上同一个位置的子树替换可打印树上的子树，同时更新标签长度的统计
+         */
+        private boolean replace(INode<E> sourceRoot, long position) {
+            int depth = depthOf(position);
+            PrintableNode parent = (PrintableNode) walk(root, position, depth - 1);
+            // 父节点一定是上次同步时就在的真实节点
+            if (Objects.isNull(parent) || Objects.isNull(parent.data)) {
+                return false;
+            }
+            boolean right = (position & 1) == 1;
+            PrintableNode old = right ? parent.right : parent.left;
+            if (Objects.nonNull(old)) {
+                countLabels(old, -1);
+            } else if (layoutMode == LayoutMode.SPARSE) {
+                count(nilLabel(parent, right).length(), -1);
+            }
+            @SuppressWarnings("unchecked")
+            INode<E> subtree = (INode<E>) walk(sourceRoot, position, depth);
+            PrintableNode child;
+            if (Objects.nonNull(subtree)) {
+                child = deepClone(subtree, parent, depth);
+            } else if (layoutMode == LayoutMode.FULL) {
+                child = new PrintableNode(parent, null, null, null, depth, (right ? "R-NIL-" : "L-NIL-") + parent.getData());
+            } else {
+                child = null;
+            }
+            if (Objects.nonNull(child) && layoutMode == LayoutMode.FULL) {
+                fillWithNilNode(child);
+            }
+            if (right) {
+                parent.right = child;
+            } else {
+                parent.left = child;
+            }
+            // 单字节的画布写不下 Latin-1 以外的字符
+            if (Objects.nonNull(child) && container.latin1 && !labelsWithin(child, (char) 0xFF)) {
+                return false;
+            }
+            if (Objects.nonNull(child)) {
+                countLabels(child, 1);
+            } else if (layoutMode == LayoutMode.SPARSE) {
+                count(nilLabel(parent, right).length(), 1);
+            }
+            return true;
+        }
+
+        @SuppressWarnings("unchecked")
+        private boolean relabel(INode<E> sourceRoot, long position) {
+            int depth = depthOf(position);
+            PrintableNode node = (PrintableNode) walk(root, position, depth);
+            boolean counted = layoutMode == LayoutMode.SPARSE || depth == maxHeight;
+            if (counted) {
+                count(node.toString().length(), -1);
+            }
+            node.data = ((INode<E>) walk(sourceRoot, position, depth)).getData();
+            if (counted) {
+                count(node.toString().length(), 1);
+            }
+            return !container.latin1 || labelsWithin(node.toString(), (char) 0xFF);
+        }
+
+        /**
+         * 统计 start 这棵子树里参与计算单元块长度的标签：FULL 布局只有最后一层，SPARSE 布局是所有节点和缺失子节点的 NIL 标签
+         *
+         * @param start
+         * @param delta 1 是加上，-1 是减去
+         */
+        private void countLabels(PrintableNode start, int delta) {
+            Queue<PrintableNode> access = new ArrayDeque<>();
+            access.offer(start);
+            while (!access.isEmpty()) {
+                PrintableNode poll = access.poll();
+                if (layoutMode == LayoutMode.SPARSE || poll.printableNodeDepth == maxHeight) {
+                    count(poll.toString().length(), delta);
+                }
+                if (poll.printableNodeDepth == maxHeight) {
+                    continue;
+                }
+                if (Objects.nonNull(poll.left)) {
+                    access.offer(poll.left);
+                } else if (layoutMode == LayoutMode.SPARSE) {
+                    count(nilLabel(poll, false).length(), delta);
+                }
+                if (Objects.nonNull(poll.right)) {
+                    access.offer(poll.right);
+                } else if (layoutMode == LayoutMode.SPARSE) {
+                    count(nilLabel(poll, true).length(), delta);
+                }
+            }
+        }
+
+        private void count(int length, int delta) {
+            this.labelLengths.merge(length, delta, (a, b) -> a + b == 0 ? null : a + b);
+        }
+
+        /**
+         * 第 depth 层序号为 slot 的子树在画布上正好占 [slot * span, (slot + 1) * span) 这些列，span = 宽度 / 2^(depth - 1)，
+         * 子树里的标签和连线、连到父节点的连线都不会超出这个范围，所以先把这个范围从父节点下面一行开始清空再重画
+         */
+        private void redrawSubtree(long position) {
+            int depth = depthOf(position);
+            long slot = position - (1L << (depth - 1));
+            int span = containerWidth >> (depth - 1);
+            int from = (int) slot * span;
+            for (int row = rowOf(depth - 1) + 1; row < container.rows; row++) {
+                container.fill(row, from, from + span, ' ');
+            }
+            PrintableNode parent = (PrintableNode) walk(root, position, depth - 1);
+            boolean right = (position & 1) == 1;
+            PrintableNode child = right ? parent.right : parent.left;
+            if (Objects.nonNull(child)) {
+                buildSparsePrintContainer(child, slot);
+            } else {
+                placeUnitBlock(nilLabel(parent, right), depth, horizontalOffsetPercent(depth, slot));
+                drawConnector(depth, parent.offset, right);
+            }
+        }
+
+        private void redrawLabel(long position) {
+            int depth = depthOf(position);
+            PrintableNode node = (PrintableNode) walk(root, position, depth);
+            int span = containerWidth >> (depth - 1);
+            int from = (int) (position - (1L << (depth - 1))) * span;
+            container.fill(rowOf(depth), from, from + span, ' ');
+            placeUnitBlock(node.toString(), depth, node.horizontalOffsetPercent);
+        }
+    }
+
     public void print() {
+        refresh();
         if (Objects.isNull(this.root)) {
             return;
         }
-        for (int i = 0; i < container.length; i++) {
-//            挨个儿打印容器元素即可
-//            for (int j = 0; j < container[i].length; j++) {
-//                System.out.print(container[i][j]);
-//            }
-            // 当然也可以直接将整行字符数组创建成一个字符串来打印
-            log.info(new String(container[i]));
+        for (int i = 0; i < container.rows; i++) {
+            // 直接将整行创建成一个字符串来打印
+            log.info(container.row(i));
         }
     }
 
@@ -0,0 +1,150 @@
+package com.kilobytech.treeprinter.tree;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * @author huangtao
+ * @Title: RenderCache
+ * @Description: 打印结果的缓存，键是（树，版本号，子树根节点，布局方式，最大深度），
+ * 树的结构一变版本号就变，旧版本的条目再也不会命中，等着按最近最少使用的顺序被挤出去，
+ * 所以不需要监听树的修改，也不会返回过期的结果，
+ * 条目个数有上限，超过上限时淘汰最久没有用过的那个，命中和未命中的次数都有计数
+ * @date 2020/8/13
+ */
+public class RenderCache<V> {
+
+    // 最多缓存几个条目
+    private final int capacity;
+
+    // 按访问顺序排列的条目，最久没有用过的在最前面
+    private final LinkedHashMap<Key, V> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    public RenderCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("缓存容量至少为 1，实际为 " + capacity);
+        }
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<Key, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, V> eldest) {
+                return size() > RenderCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * 命中就直接返回缓存的结果，否则调用 loader 生成一个放进缓存，
+     * 生成的过程不加锁，两个线程同时未命中同一个键时各自生成一次，后放进去的那个留下
+     *
+     * @param key
+     * @param loader
+     * @return
+     */
+    public V get(Key key, Supplier<? extends V> loader) {
+        V value;
+        synchronized (this.entries) {
+            value = this.entries.get(key);
+        }
+        if (Objects.nonNull(value)) {
+            this.hits.incrementAndGet();
+            return value;
+        }
+        this.misses.incrementAndGet();
+        value = Objects.requireNonNull(loader.get(), "缓存的打印结果不能为空");
+        synchronized (this.entries) {
+            this.entries.put(key, value);
+        }
+        return value;
+    }
+
+    public void clear() {
+        synchronized (this.entries) {
+            this.entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * 缓存的键，树和子树根节点用 equals 比较，树和节点都没有覆盖 equals，所以就是按同一个对象比较，
+     * 不是从某个对象打印出来的结果（比如网页上按节点个数生成的树）可以用任何能描述它的值代替
+     */
+    public static final class Key {
+        private final Object tree;
+        private final long version;
+        private final Object subtree;
+        private final LayoutMode layoutMode;
+        private final int maxDepth;
+
+        private Key(Object tree, long version, Object subtree, LayoutMode layoutMode, int maxDepth) {
+            this.tree = tree;
+            this.version = version;
+            this.subtree = subtree;
+            this.layoutMode = layoutMode;
+            this.maxDepth = maxDepth;
+        }
+
+        /**
+         * 打印整棵平衡二叉树
+         */
+        public static <E extends Comparable> Key of(BalanceBinarySearchTree<E> tree, LayoutMode layoutMode, int maxDepth) {
+            return of(tree, tree.getRoot(), layoutMode, maxDepth);
+        }
+
+        /**
+         * 打印平衡二叉树上以 subtree 为根的子树
+         */
+        public static <E extends Comparable> Key of(BalanceBinarySearchTree<E> tree, INode<E> subtree, LayoutMode layoutMode, int maxDepth) {
+            return new Key(tree, tree.getModCount(), subtree, layoutMode, maxDepth);
+        }
+
+        public static Key of(Object tree, long version, Object subtree, LayoutMode layoutMode, int maxDepth) {
+            return new Key(tree, version, subtree, layoutMode, maxDepth);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return version == key.version
+                    && maxDepth == key.maxDepth
+                    && layoutMode == key.layoutMode
+                    && Objects.equals(tree, key.tree)
+                    && Objects.equals(subtree, key.subtree);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tree, version, subtree, layoutMode, maxDepth);
+        }
+    }
+}
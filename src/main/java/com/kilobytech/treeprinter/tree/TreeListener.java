@@ -0,0 +1,35 @@
+package com.kilobytech.treeprinter.tree;
+
+/**
+ * @author huangtao
+ * @Title: TreeListener
+ * @Description: 树结构变化的监听器，插入、删除、旋转、批量重建时回调，
+ * 回调发生在修改过程中，树可能还没有平衡完，所以监听器只应该记下变化的位置，等修改结束之后再去读树，
+ * 没有监听器时树在热点路径上只多判断一个 boolean
+ * @date 2020/8/12
+ */
+public interface TreeListener<E extends Comparable> {
+
+    /**
+     * 以 subtree 为根的子树结构变了：新挂载的节点、旋转后的子树根节点、被删节点原来位置上的节点，
+     * 回调时 subtree 已经挂在它的新位置上，这个位置之外的结构都没有变（祖先节点的高度和子树大小除外）
+     *
+     * @param subtree
+     */
+    default void restructured(INode<E> subtree) {
+    }
+
+    /**
+     * 节点的数据被替换了（删除有两个子节点的节点时和前驱或后继交换数据），结构没有变
+     *
+     * @param node
+     */
+    default void relabeled(INode<E> node) {
+    }
+
+    /**
+     * 整棵树被替换了，比如批量加载、切分、集合运算、清空
+     */
+    default void rebuilt() {
+    }
+}
@@ -0,0 +1,117 @@
+package com.kilobytech.treeprinter.tree;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author huangtao
+ * @Title: TreeTracer
+ * @Description: 树内部过程的跟踪钩子，搜索、卸载节点、重算高度、旋转时回调
+ * 树在设置跟踪器时只记下一个 boolean，热点路径上先判断这个 boolean 再回调，
+ * 没有设置跟踪器（或者设置的是 {@link #NONE}）时既不拼字符串也不装箱，插入、搜索、删除除了新节点之外不分配任何内存
+ * @date 2020/8/8
+ */
+public interface TreeTracer<E extends Comparable> {
+
+    /**
+     * 不做任何事的跟踪器
+     */
+    TreeTracer NONE = new TreeTracer() {
+    };
+
+    /**
+     * 搜索时每往下走一步回调一次
+     *
+     * @param data    要搜索的数据
+     * @param current 当前搜寻的节点
+     * @param cmp     data 和当前节点数据的比较结果
+     */
+    default void searchStep(E data, INode<E> current, int cmp) {
+    }
+
+    /**
+     * 搜索未命中
+     *
+     * @param data
+     */
+    default void searchMiss(E data) {
+    }
+
+    /**
+     * 即将从树上卸载节点，此时它最多只有一个子节点
+     *
+     * @param node
+     */
+    default void unmount(INode<E> node) {
+    }
+
+    /**
+     * 节点重新计算完平衡因子和高度
+     *
+     * @param node
+     * @param balanceFactor
+     * @param height
+     */
+    default void reCalculated(INode<E> node, int balanceFactor, int height) {
+    }
+
+    /**
+     * 旋转完毕
+     *
+     * @param node    旋转前的子树根节点
+     * @param newRoot 旋转后的子树根节点
+     * @param right   是否右旋
+     */
+    default void rotated(INode<E> node, INode<E> newRoot, boolean right) {
+    }
+
+    /**
+     * 和以前一样把过程打到 debug 日志里的跟踪器，只在排查问题时使用
+     *
+     * @param <E>
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    static <E extends Comparable> TreeTracer<E> logging() {
+        return LoggingTreeTracer.INSTANCE;
+    }
+
+    @Slf4j
+    final class LoggingTreeTracer implements TreeTracer {
+
+        private static final LoggingTreeTracer INSTANCE = new LoggingTreeTracer();
+
+        private LoggingTreeTracer() {
+        }
+
+        @Override
+        public void searchStep(Comparable data, INode current, int cmp) {
+            if (cmp < 0) {
+                log.debug("节点[{}] 比当前搜寻节点 [{}] 小，继续往左搜寻", data, current.getData());
+            } else if (cmp > 0) {
+                log.debug("节点[{}] 比当前搜寻节点 [{}] 大，继续往右搜寻", data, current.getData());
+            } else {
+                log.debug("节点[{}] 等于当前搜寻节点 [{}] 停止搜寻", data, current.getData());
+            }
+        }
+
+        @Override
+        public void searchMiss(Comparable data) {
+            log.debug("未找到节点 [{}]", data);
+        }
+
+        @Override
+        public void unmount(INode node) {
+            log.debug("卸载节点[{}]，左节点：{}，右节点：{}", node.getData(), node.getLeft(), node.getRight());
+        }
+
+        @Override
+        public void reCalculated(INode node, int balanceFactor, int height) {
+            log.debug("节点 [{}] recalculate BF: {} recalculate HG: {}", node.getData(), balanceFactor, height);
+        }
+
+        @Override
+        public void rotated(INode node, INode newRoot, boolean right) {
+            log.debug("[{}] 节点{}旋完毕，新节点[{}]高度：{}", node.getData(), right ? "右" : "左", newRoot.getData(), newRoot.getHeight());
+        }
+    }
+}
@@ -8,13 +8,14 @@ package com.kilobytech.treeprinter.util;
  */
 public class CalculatorHelper {
     /**
-     * 判断两个平衡因子是否异号
+     * 判断两个平衡因子是否异号，0 没有符号，和谁都不算异号，
+     * 否则删除时遇到 -2 和 0 的组合会被误判成需要双旋
      * @param bf1
      * @param bf2
      * @return
      */
     public static boolean isOppositeSign(int bf1, int bf2) {
-        return (bf1 ^ bf2) >>> 31 == 1;
+        return bf1 != 0 && bf2 != 0 && (bf1 ^ bf2) >>> 31 == 1;
     }
 
     /**
@@ -0,0 +1,21 @@
+package com.kilobytech.treeprinter.vo;
+
+import lombok.Data;
+
+/**
+ * @Title: CacheVo
+ * @Description: 打印结果缓存的统计
+ * @author huangtao
+ * @date 2020/8/13
+ */
+@Data
+public class CacheVo {
+    // 最多缓存几个条目
+    private int capacity;
+    // 当前缓存的条目个数
+    private int size;
+    // 命中次数
+    private long hits;
+    // 未命中次数
+    private long misses;
+}
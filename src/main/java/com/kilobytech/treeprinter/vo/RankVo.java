@@ -0,0 +1,20 @@
+package com.kilobytech.treeprinter.vo;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * @Title: RankVo
+ * @Description:
+ * @author huangtao
+ * @date 2020/8/7
+ */
+@Data
+public class RankVo {
+    private List<Integer> inputData;
+    // 排名，从 0 开始
+    private Integer rank;
+    // 从排名所在节点往上走几层作为打印的子树根节点
+    private Integer up;
+}
@@ -0,0 +1,29 @@
+package com.kilobytech.treeprinter.vo;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * @Title: ViewportVo
+ * @Description: 视口，只包含画布上一个窗口里的文本和节点
+ * @author huangtao
+ * @date 2020/8/11
+ */
+@Data
+public class ViewportVo {
+    // 整个画布的行数
+    private int rows;
+    // 整个画布的列数
+    private int width;
+    // 窗口在画布上的行范围，左闭右开
+    private int rowFrom;
+    private int rowTo;
+    // 窗口在画布上的列范围，左闭右开
+    private int colFrom;
+    private int colTo;
+    // 窗口里的文本，每行一个字符串
+    private List<String> text;
+    // 窗口里的节点和连线，坐标和整棵树打印时一致
+    private TreeVo tree;
+}
@@ -0,0 +1,379 @@
+package com.kilobytech.treeprinter.tree;
+
+import com.sun.management.ThreadMXBean;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class BalanceBinarySearchTreeTests {
+
+    @Test
+    void bulkLoadAscending() {
+        BalanceBinarySearchTree<Integer> tree = new BalanceBinarySearchTree<>();
+        int added = tree.bulkLoad(IntStream.range(0, 100000).boxed().collect(Collectors.toList()));
+        assertEquals(100000, added);
+        assertEquals(100000, tree.getSize());
+        assertAvl(tree);
+    }
+
+    @Test
+    void bulkLoadUnsortedWithDuplicatesMergesExisting() {
+        BalanceBinarySearchTree<Integer> tree = new BalanceBinarySearchTree<>();
+        for (int i = 0; i < 100; i += 2) {
+            tree.insert(i);
+        }
+        List<Integer> data = IntStream.range(0, 200).map(i -> i % 150).boxed().collect(Collectors.toList());
+        Collections.shuffle(data, new Random(7));
+        int added = tree.bulkLoad(data);
+        assertEquals(100, added);
+        assertEquals(150, tree.getSize());
+        assertAvl(tree);
+    }
+
+    @Test
+    void insertAndDeleteAfterBulkLoad() {
+        BalanceBinarySearchTree<Integer> tree = new BalanceBinarySearchTree<>();
+        tree.bulkLoad(IntStream.iterate(1000, i -> i - 1).limit(1000).boxed().collect(Collectors.toList()));
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            int key = random.nextInt(3000);
+            if (random.nextBoolean()) {
+                tree.insert(key);
+            } else {
+                tree.delete(key);
+            }
+            assertAvl(tree);
+        }
+        assertFalse(tree.insert(tree.getRoot().getData()));
+        assertTrue(tree.delete(tree.getRoot().getData()));
+        assertAvl(tree);
+    }
+
+    @Test
+    void putIfAbsentReturnsExistingNode() {
+        BalanceBinarySearchTree<Integer> tree = new BalanceBinarySearchTree<>();
+        for (int i = 0; i < 1000; i++) {
+            assertNull(tree.putIfAbsent(i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertSame(tree.search(i, tree.getRoot()), tree.putIfAbsent(i));
+        }
+        assertEquals(1000, tree.getSize());
+        assertAvl(tree);
+    }
+
+    @Test
+    void reBalanceStopsEarlyOnRandomWorkload() {
+        BalanceBinarySearchTree<Integer> tree = new BalanceBinarySearchTree<>();
+        Random random = new Random(5);
+        for (int i = 0; i < 100000; i++) {
+            tree.insert(random.nextInt());
+        }
+        assertTrue(tree.getAverageReBalanceVisits() < 4, "插入平均访问祖先个数：" + tree.getAverageReBalanceVisits());
+        long visits = tree.getReBalanceVisits();
+        long operations = tree.getReBalanceOperations();
+        while (tree.getSize() > 50000) {
+            tree.delete(tree.getRoot().getData());
+        }
+        double deleteAverage = (double) (tree.getReBalanceVisits() - visits) / (tree.getReBalanceOperations() - operations);
+        assertTrue(deleteAverage < 4, "删除平均访问祖先个数：" + deleteAverage);
+        assertAvl(tree);
+    }
+
+    @Test
+    void setOperationsMatchTreeSet() {
+        Random random = new Random(8);
+        int[][] sizes = {{0, 10}, {10, 0}, {1000, 30}, {30, 1000}, {200000, 150000}};
+        for (int[] size : sizes) {
+            for (String operation : new String[]{"union", "intersection", "difference"}) {
+                TreeSet<Integer> expected = new TreeSet<>();
+                TreeSet<Integer> otherExpected = new TreeSet<>();
+                BalanceBinarySearchTree<Integer> tree = new BalanceBinarySearchTree<>();
+                BalanceBinarySearchTree<Integer> other = new BalanceBinarySearchTree<>();
+                random.ints(size[0], 0, size[0] * 2 + 1).forEach(expected::add);
+                random.ints(size[1], 0, size[1] * 2 + 1).forEach(otherExpected::add);
+                tree.bulkLoad(expected);
+                other.bulkLoad(otherExpected);
+                int before = expected.size();
+                int delta;
+                if ("union".equals(operation)) {
+                    delta = tree.union(other);
+                    expected.addAll(otherExpected);
+                } else if ("intersection".equals(operation)) {
+                    delta = -tree.intersection(other);
+                    expected.retainAll(otherExpected);
+                } else {
+                    delta = -tree.difference(other);
+                    expected.removeAll(otherExpected);
+                }
+                assertEquals(expected.size() - before, delta);
+                assertAvl(tree);
+                assertAvl(other);
+                assertEquals(new ArrayList<>(expected), inOrder(tree.getRoot(), new ArrayList<>()));
+                assertEquals(new ArrayList<>(otherExpected), inOrder(other.getRoot(), new ArrayList<>()));
+            }
+        }
+    }
+
+    @Test
+    void joinAndSplit() {
+        BalanceBinarySearchTree<Integer> left = new BalanceBinarySearchTree<>();
+        BalanceBinarySearchTree<Integer> right = new BalanceBinarySearchTree<>();
+        left.bulkLoad(IntStream.range(0, 10).boxed().collect(Collectors.toList()));
+        right.bulkLoad(IntStream.range(11, 5000).boxed().collect(Collectors.toList()));
+        BalanceBinarySearchTree<Integer> joined = BalanceBinarySearchTree.join(left, 10, right);
+        assertEquals(5000, joined.getSize());
+        assertEquals(0, left.getSize());
+        assertNull(right.getRoot());
+        assertAvl(joined);
+
+        for (int key : new int[]{2500, 2500, 0, -1, 4999, 6000}) {
+            int size = joined.getSize();
+            BalanceBinarySearchTree<Integer> greater = joined.split(key);
+            assertAvl(joined);
+            assertAvl(greater);
+            assertEquals(size, joined.getSize() + greater.getSize());
+            if (joined.getSize() > 0) {
+                assertTrue(joined.search4Maximum(joined.getRoot()).getData() < key);
+            }
+            if (greater.getSize() > 0) {
+                assertTrue(greater.search4Minimum(greater.getRoot()).getData() >= key);
+            }
+            joined.union(greater);
+            assertEquals(size, joined.getSize());
+        }
+    }
+
+    private static <E extends Comparable> List<E> inOrder(BalanceBinarySearchTree<E>.Node node, List<E> data) {
+        if (Objects.nonNull(node)) {
+            inOrder(node.getLeft(), data);
+            data.add(node.getData());
+            inOrder(node.getRight(), data);
+        }
+        return data;
+    }
+
+    @Test
+    void bulkLoadEmpty() {
+        BalanceBinarySearchTree<Integer> tree = new BalanceBinarySearchTree<>();
+        assertEquals(0, tree.bulkLoad(new ArrayList<>()));
+        assertNull(tree.getRoot());
+    }
+
+    @Test
+    void orderStatisticsMatchTreeSet() {
+        BalanceBinarySearchTree<Integer> tree = new BalanceBinarySearchTree<>();
+        TreeSet<Integer> expected = new TreeSet<>();
+        Random random = new Random(2020);
+        for (int i = 0; i < 5000; i++) {
+            int key = random.nextInt(1000);
+            if (random.nextInt(3) > 0) {
+                assertEquals(expected.add(key), tree.insert(key));
+            } else {
+                assertEquals(expected.remove(key), tree.delete(key));
+            }
+        }
+        assertAvl(tree);
+        List<Integer> sorted = new ArrayList<>(expected);
+        for (int k = 0; k < sorted.size(); k++) {
+            assertEquals(sorted.get(k), tree.select(k).getData());
+            assertEquals(k, tree.rank(sorted.get(k)));
+        }
+        for (int i = 0; i < 200; i++) {
+            int from = random.nextInt(1100) - 50;
+            int to = random.nextInt(1100) - 50;
+            assertEquals(expected.headSet(from).size(), tree.rank(from));
+            int count = from > to ? 0 : expected.subSet(from, true, to, true).size();
+            assertEquals(count, tree.countRange(from, to));
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> tree.select(sorted.size()));
+        assertThrows(IndexOutOfBoundsException.class, () -> tree.select(-1));
+    }
+
+    @Test
+    void orderStatisticsAfterBulkLoadAndSplit() {
+        BalanceBinarySearchTree<Integer> tree = new BalanceBinarySearchTree<>();
+        tree.bulkLoad(IntStream.range(0, 1000).boxed().collect(Collectors.toList()));
+        assertEquals(300, tree.rank(300));
+        BalanceBinarySearchTree<Integer> greater = tree.split(600);
+        assertAvl(tree);
+        assertAvl(greater);
+        assertEquals(700, greater.select(100).getData());
+        assertEquals(100, tree.countRange(500, 10000));
+        BalanceBinarySearchTree<Integer>.Node around = tree.around(10, 2);
+        assertTrue(around.getSize() >= 3);
+    }
+
+    @Test
+    void iteratorAndRangeMatchTreeSet() {
+        BalanceBinarySearchTree<Integer> tree = new BalanceBinarySearchTree<>();
+        TreeSet<Integer> expected = new TreeSet<>();
+        Random random = new Random(2020);
+        for (int i = 0; i < 3000; i++) {
+            int key = random.nextInt(1000);
+            if (random.nextInt(3) > 0) {
+                tree.insert(key);
+                expected.add(key);
+            } else {
+                tree.delete(key);
+                expected.remove(key);
+            }
+        }
+        List<Integer> actual = new ArrayList<>();
+        tree.forEach(actual::add);
+        assertEquals(new ArrayList<>(expected), actual);
+        for (int i = 0; i < 200; i++) {
+            int from = random.nextInt(1100) - 50;
+            int to = random.nextInt(1100) - 50;
+            List<Integer> range = new ArrayList<>();
+            tree.iterator(from, to).forEachRemaining(range::add);
+            List<Integer> expectedRange = from > to ? new ArrayList<>() : new ArrayList<>(expected.subSet(from, true, to, true));
+            assertEquals(expectedRange, range);
+            assertEquals(expectedRange, tree.stream(from, to).parallel().collect(Collectors.toList()));
+            assertEquals(expectedRange.size(), tree.spliterator(from, to).estimateSize());
+        }
+        assertFalse(new BalanceBinarySearchTree<Integer>().iterator().hasNext());
+    }
+
+    @Test
+    void parallelStreamSplitsAtSubtreeBoundaries() {
+        BalanceBinarySearchTree<Integer> tree = new BalanceBinarySearchTree<>();
+        int n = 1 << 20;
+        tree.bulkLoad(IntStream.range(0, n).boxed().collect(Collectors.toList()));
+        assertEquals((long) n * (n - 1) / 2, tree.stream().parallel().mapToLong(Integer::longValue).sum());
+        assertEquals(n, tree.stream().parallel().filter(e -> e >= 0).count());
+        Spliterator<Integer> rest = tree.spliterator();
+        Spliterator<Integer> prefix = rest.trySplit();
+        assertEquals(n, prefix.estimateSize() + rest.estimateSize());
+        assertTrue(prefix.estimateSize() > n / 4 && rest.estimateSize() > n / 4);
+        Integer[] last = new Integer[1];
+        prefix.forEachRemaining(e -> last[0] = e);
+        assertTrue(rest.tryAdvance(e -> assertEquals(last[0] + 1, (int) e)));
+    }
+
+    @Test
+    void hotPathAllocatesOnlyNewNodes() {
+        ThreadMXBean bean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled());
+        int n = 100000;
+        // 提前装箱，避免把 Integer 的分配算到树的头上
+        Integer[] keys = new Integer[n];
+        Integer[] misses = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = i * 2;
+            misses[i] = i * 2 + 1;
+        }
+        Collections.shuffle(Arrays.asList(keys), new Random(2020));
+        // 预热一遍，类加载、常量池解析这类一次性的分配不计入
+        hotPath(new BalanceBinarySearchTree<>(), keys, misses);
+        BalanceBinarySearchTree<Integer> tree = new BalanceBinarySearchTree<>();
+        tree.setTracer(null);
+        long[] allocated = hotPath(tree, keys, misses);
+        assertTrue(allocated[0] < n * 96L, "插入平均每次分配了 " + allocated[0] / n + " 字节");
+        assertTrue(allocated[1] < 1024, "搜索分配了 " + allocated[1] + " 字节");
+        assertTrue(allocated[2] < 1024, "删除分配了 " + allocated[2] + " 字节");
+    }
+
+    /**
+     * 依次插入、搜索、删除，返回三个阶段当前线程各自分配的字节数
+     */
+    private static long[] hotPath(BalanceBinarySearchTree<Integer> tree, Integer[] keys, Integer[] misses) {
+        ThreadMXBean bean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long[] allocated = new long[3];
+        long start = bean.getThreadAllocatedBytes(thread);
+        for (Integer key : keys) {
+            tree.insert(key);
+        }
+        long inserted = bean.getThreadAllocatedBytes(thread);
+        int found = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (Objects.nonNull(tree.search(keys[i], tree.getRoot()))) {
+                found++;
+            }
+            if (Objects.nonNull(tree.search(misses[i], tree.getRoot()))) {
+                found--;
+            }
+        }
+        long searched = bean.getThreadAllocatedBytes(thread);
+        for (Integer key : keys) {
+            tree.delete(key);
+        }
+        long deleted = bean.getThreadAllocatedBytes(thread);
+        assertEquals(keys.length, found);
+        assertNull(tree.getRoot());
+        allocated[0] = inserted - start;
+        allocated[1] = searched - inserted;
+        allocated[2] = deleted - searched;
+        return allocated;
+    }
+
+    /**
+     * 校验 AVL 不变式：父子指针一致、中序有序、高度、平衡因子和子树节点个数正确、节点个数与 size 一致
+     */
+    static <E extends Comparable> void assertAvl(BalanceBinarySearchTree<E> tree) {
+        if (Objects.nonNull(tree.getRoot())) {
+            assertNull(tree.getRoot().getParent());
+        }
+        List<E> data = new ArrayList<>();
+        check(tree.getRoot(), data);
+        assertEquals(tree.getSize(), data.size());
+        for (int i = 1; i < data.size(); i++) {
+            assertTrue(data.get(i - 1).compareTo(data.get(i)) < 0, "中序遍历必须严格递增");
+        }
+    }
+
+    /**
+     * 校验两棵树的形状、数据和高度完全一致
+     */
+    static <E extends Comparable> void assertSameShape(INode<E> expected, INode<E> actual) {
+        if (Objects.isNull(expected)) {
+            assertNull(actual);
+            return;
+        }
+        assertEquals(expected.getData(), actual.getData());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        assertSameShape(expected.getLeft(), actual.getLeft());
+        assertSameShape(expected.getRight(), actual.getRight());
+    }
+
+    private static <E extends Comparable> int check(BalanceBinarySearchTree<E>.Node node, List<E> data) {
+        if (Objects.isNull(node)) {
+            return 0;
+        }
+        if (Objects.nonNull(node.getLeft())) {
+            assertSame(node, node.getLeft().getParent());
+        }
+        if (Objects.nonNull(node.getRight())) {
+            assertSame(node, node.getRight().getParent());
+        }
+        int hL = check(node.getLeft(), data);
+        data.add(node.getData());
+        int hR = check(node.getRight(), data);
+        assertEquals(Math.max(hL, hR) + 1, node.getHeight(), "节点" + node + "高度错误");
+        assertEquals(hL - hR, node.getBalanceFactor(), "节点" + node + "平衡因子错误");
+        assertTrue(Math.abs(hL - hR) < 2, "节点" + node + "不平衡");
+        int sizeL = Objects.isNull(node.getLeft()) ? 0 : node.getLeft().getSize();
+        int sizeR = Objects.isNull(node.getRight()) ? 0 : node.getRight().getSize();
+        assertEquals(sizeL + sizeR + 1, node.getSize(), "节点" + node + "子树节点个数错误");
+        return node.getHeight();
+    }
+}
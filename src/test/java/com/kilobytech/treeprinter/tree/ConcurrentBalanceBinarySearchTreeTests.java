@@ -0,0 +1,71 @@
+package com.kilobytech.treeprinter.tree;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConcurrentBalanceBinarySearchTreeTests {
+
+    /**
+     * 每个线程只写 key % THREADS == 线程号 的数据，所以每个线程自己的 BitSet 就是它那部分数据的准确模型，
+     * 同时所有线程都会随机读任意数据，最后校验 AVL 不变式以及树上的数据和所有模型的并集一致
+     */
+    @Test
+    void mixedOperationsKeepAvlInvariants() throws Exception {
+        final int threads = 8;
+        final int operationsPerThread = 250000;
+        final int keySpace = 1 << 16;
+        ConcurrentBalanceBinarySearchTree<Integer> tree = new ConcurrentBalanceBinarySearchTree<>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<BitSet>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            futures.add(pool.submit(() -> {
+                Random random = new Random(id);
+                BitSet model = new BitSet(keySpace);
+                for (int i = 0; i < operationsPerThread; i++) {
+                    int op = random.nextInt(10);
+                    if (op < 6) {
+                        tree.contains(random.nextInt(keySpace));
+                        continue;
+                    }
+                    int key = random.nextInt(keySpace / threads) * threads + id;
+                    if (op < 8) {
+                        assertEquals(!model.get(key), tree.insert(key));
+                        model.set(key);
+                    } else {
+                        assertEquals(model.get(key), tree.delete(key));
+                        model.clear(key);
+                    }
+                    assertEquals(model.get(key), tree.contains(key));
+                }
+                return model;
+            }));
+        }
+        BitSet expected = new BitSet(keySpace);
+        for (Future<BitSet> future : futures) {
+            expected.or(future.get());
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(1, TimeUnit.MINUTES));
+
+        assertEquals(expected.cardinality(), tree.getSize());
+        tree.read(t -> {
+            BalanceBinarySearchTreeTests.assertAvl(t);
+            return null;
+        });
+        for (int key = 0; key < keySpace; key++) {
+            assertEquals(expected.get(key), tree.contains(key));
+        }
+    }
+}
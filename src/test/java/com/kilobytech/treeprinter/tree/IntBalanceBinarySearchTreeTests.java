@@ -0,0 +1,65 @@
+package com.kilobytech.treeprinter.tree;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class IntBalanceBinarySearchTreeTests {
+
+    @Test
+    void sameShapeAsBalanceBinarySearchTree() {
+        assertSameShapeAsBalanceBinarySearchTree(new IntBalanceBinarySearchTree(1));
+    }
+
+    @Test
+    void offHeapDirect() {
+        try (IntBalanceBinarySearchTree tree = new IntBalanceBinarySearchTree(OffHeapIntNodeStore.direct())) {
+            assertSameShapeAsBalanceBinarySearchTree(tree);
+        }
+    }
+
+    @Test
+    void offHeapMapped(@TempDir Path dir) {
+        try (IntBalanceBinarySearchTree tree = new IntBalanceBinarySearchTree(OffHeapIntNodeStore.mapped(dir.resolve("nodes.bin")))) {
+            assertSameShapeAsBalanceBinarySearchTree(tree);
+        }
+    }
+
+    private void assertSameShapeAsBalanceBinarySearchTree(IntBalanceBinarySearchTree actual) {
+        BalanceBinarySearchTree<Integer> expected = new BalanceBinarySearchTree<>();
+        Random random = new Random(2020);
+        for (int i = 0; i < 20000; i++) {
+            int key = random.nextInt(2000);
+            if (random.nextInt(3) > 0) {
+                assertEquals(expected.insert(key), actual.insert(key));
+            } else {
+                assertEquals(expected.delete(key), actual.delete(key));
+            }
+            assertEquals(expected.getSize(), actual.getSize());
+        }
+        BalanceBinarySearchTreeTests.assertSameShape(expected.getRoot(), actual.getRootNode());
+        assertEquals(IntBalanceBinarySearchTree.NIL, actual.search(-1));
+    }
+
+    @Test
+    void reuseReleasedSlots() {
+        IntBalanceBinarySearchTree tree = new IntBalanceBinarySearchTree(4);
+        for (int i = 0; i < 4; i++) {
+            tree.insert(i);
+        }
+        tree.delete(3);
+        tree.delete(0);
+        tree.insert(10);
+        tree.insert(11);
+        for (int i = 0; i < 4; i++) {
+            tree.insert(100 + i);
+        }
+        assertEquals(8, tree.getSize());
+        assertNotNull(new PrintableTree<>(tree.getRootNode()).getRoot());
+    }
+}
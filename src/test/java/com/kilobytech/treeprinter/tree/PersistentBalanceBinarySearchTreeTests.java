@@ -0,0 +1,57 @@
+package com.kilobytech.treeprinter.tree;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class PersistentBalanceBinarySearchTreeTests {
+
+    @Test
+    void sameShapeAsBalanceBinarySearchTree() {
+        BalanceBinarySearchTree<Integer> expected = new BalanceBinarySearchTree<>();
+        PersistentBalanceBinarySearchTree<Integer> actual = new PersistentBalanceBinarySearchTree<>();
+        Random random = new Random(11);
+        for (int i = 0; i < 20000; i++) {
+            int key = random.nextInt(2000);
+            if (random.nextInt(3) > 0) {
+                assertEquals(expected.insert(key), actual.insert(key));
+            } else {
+                assertEquals(expected.delete(key), actual.delete(key));
+            }
+        }
+        assertEquals(expected.getSize(), actual.getSize());
+        BalanceBinarySearchTreeTests.assertSameShape(expected.getRoot(), actual.getRoot());
+    }
+
+    @Test
+    void oldSnapshotsStayUnchanged() {
+        PersistentBalanceBinarySearchTree<Integer> tree = new PersistentBalanceBinarySearchTree<>();
+        List<PersistentBalanceBinarySearchTree.Snapshot<Integer>> snapshots = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            tree.insert(i);
+            snapshots.add(tree.snapshot());
+        }
+        for (int i = 0; i < 200; i += 2) {
+            tree.delete(i);
+        }
+        for (int i = 0; i < snapshots.size(); i++) {
+            PersistentBalanceBinarySearchTree.Snapshot<Integer> snapshot = snapshots.get(i);
+            assertEquals(i + 1, snapshot.getSize());
+            assertEquals(i + 1, snapshot.getVersion());
+            for (int key = 0; key < 200; key++) {
+                assertEquals(key <= i, Objects.nonNull(snapshot.search(key)));
+            }
+        }
+        assertEquals(100, tree.getSize());
+        assertSame(tree.snapshot(), tree.snapshot().insert(1));
+        assertSame(tree.snapshot(), tree.snapshot().delete(0));
+        assertNotNull(new PrintableTree<>(snapshots.get(10).getRoot()).getRoot());
+    }
+}
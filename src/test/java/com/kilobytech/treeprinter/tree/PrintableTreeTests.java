@@ -0,0 +1,607 @@
+package com.kilobytech.treeprinter.tree;
+
+import com.sun.management.ThreadMXBean;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class PrintableTreeTests {
+
+    /**
+     * 最简单的二叉树节点，不是搜索树，数据也可以相等
+     */
+    static class PlainNode implements INode<Integer> {
+        private final Integer data;
+        private PlainNode parent;
+        private PlainNode left;
+        private PlainNode right;
+
+        PlainNode(Integer data, PlainNode left, PlainNode right) {
+            this.data = data;
+            this.left = left;
+            this.right = right;
+            if (Objects.nonNull(left)) {
+                left.parent = this;
+            }
+            if (Objects.nonNull(right)) {
+                right.parent = this;
+            }
+        }
+
+        @Override
+        public Integer getData() {
+            return data;
+        }
+
+        @Override
+        public INode<Integer> getParent() {
+            return parent;
+        }
+
+        @Override
+        public INode<Integer> getLeft() {
+            return left;
+        }
+
+        @Override
+        public INode<Integer> getRight() {
+            return right;
+        }
+    }
+
+    @Test
+    void cloneAnyTreeWithEqualKeys() {
+        // 7 个节点的数据都是 1，右子树比左子树小，按数据搜索根本找不到正确的位置
+        PlainNode root = new PlainNode(1,
+                new PlainNode(1, new PlainNode(1, null, null), null),
+                new PlainNode(1, new PlainNode(1, null, null), new PlainNode(1, null, new PlainNode(1, null, null))));
+        PrintableTree<Integer> tree = new PrintableTree<>(root);
+        assertEquals(4, tree.getMaxHeight());
+        assertSameStructure(root, tree.getRoot(), 1, 4);
+    }
+
+    @Test
+    void cloneBalanceBinarySearchTree() {
+        BalanceBinarySearchTree<Integer> source = new BalanceBinarySearchTree<>();
+        for (int i = 0; i < 100; i++) {
+            source.insert(i * 7 % 101);
+        }
+        PrintableTree<Integer> tree = new PrintableTree<>(source.getRoot());
+        assertSameStructure(source.getRoot(), tree.getRoot(), 1, source.getRoot().getHeight());
+        // 补满之后是一棵满二叉树，每一层的水平偏移依次是 1/2^d, 3/2^d ...
+        Queue<PrintableTree<Integer>.PrintableNode> access = new ArrayDeque<>();
+        access.offer(tree.getRoot());
+        int depth = 0;
+        int index = 0;
+        while (!access.isEmpty()) {
+            PrintableTree<Integer>.PrintableNode node = access.poll();
+            if (node.getPrintableNodeDepth() != depth) {
+                depth = node.getPrintableNodeDepth();
+                index = 0;
+            }
+            assertEquals((2.0 * index + 1) / (1 << depth), node.getHorizontalOffsetPercent());
+            index++;
+            if (Objects.nonNull(node.getLeft())) {
+                access.offer((PrintableTree<Integer>.PrintableNode) node.getLeft());
+                access.offer((PrintableTree<Integer>.PrintableNode) node.getRight());
+            }
+        }
+        assertEquals(source.getRoot().getHeight(), depth);
+    }
+
+    @Test
+    void sparseLayoutOnlyCreatesRealNodes() {
+        BalanceBinarySearchTree<Integer> source = new BalanceBinarySearchTree<>();
+        // 树上有不少空位，补满的话节点个数是 2^h - 1
+        for (int i = 0; i < 200; i++) {
+            source.insert(i * 7 % 201);
+        }
+        PrintableTree<Integer> full = new PrintableTree<>(source.getRoot());
+        PrintableTree<Integer> sparse = new PrintableTree<>(source.getRoot(), LayoutMode.SPARSE);
+        assertEquals(LayoutMode.SPARSE, sparse.getLayoutMode());
+        assertEquals(source.getSize(), count(sparse.getRoot()));
+        assertEquals((1 << full.getMaxHeight()) - 1, count(full.getRoot()));
+        // 真实节点的坐标和 FULL 布局完全一致
+        assertSameOffsets(source.getRoot(), full.getRoot(), sparse.getRoot());
+        // 缺失的子节点画成虚拟的 NIL 标签，但不会再往下补
+        String text = sparse.render();
+        BalanceBinarySearchTree<Integer>.Node leaf = source.search4Minimum(source.getRoot());
+        assertTrue(text.contains("[L-NIL-" + leaf.getData() + "]"));
+        assertFalse(text.contains("L-L-NIL"));
+    }
+
+    @Test
+    void sparseLayoutOfPerfectTreeMatchesFull() {
+        BalanceBinarySearchTree<Integer> source = new BalanceBinarySearchTree<>();
+        source.bulkLoad(IntStream.range(0, 63).boxed().collect(Collectors.toList()));
+        assertEquals(new PrintableTree<>(source.getRoot()).render(), new PrintableTree<>(source.getRoot(), LayoutMode.SPARSE).render());
+    }
+
+    @Test
+    void compactLayoutWidthIsLinear() {
+        BalanceBinarySearchTree<Integer> source = new BalanceBinarySearchTree<>();
+        Random random = new Random(2020);
+        while (source.getSize() < 10000) {
+            source.insert(random.nextInt(1000000));
+        }
+        PrintableTree<Integer> compact = new PrintableTree<>(source.getRoot(), LayoutMode.COMPACT);
+        assertEquals(source.getSize(), count(compact.getRoot()));
+        // 每层两行：一行节点，一行连线
+        String[] rows = compact.render().split("\n");
+        assertEquals(2 * compact.getMaxHeight() - 1, rows.length);
+        // 同一层的节点至少隔开一个单元块，所以宽度不会超过 节点数 x 单元块宽度
+        assertTrue(compact.getContainerWidth() <= source.getSize() * compact.getUnitBlockLength());
+        // 每个节点的标签都完整地出现在它所在的行上，坐标也和 FULL 一样在 (0, 1) 之间
+        Queue<PrintableTree<Integer>.PrintableNode> access = new ArrayDeque<>();
+        access.offer(compact.getRoot());
+        while (!access.isEmpty()) {
+            PrintableTree<Integer>.PrintableNode node = access.poll();
+            int depth = node.getPrintableNodeDepth();
+            assertTrue(rows[2 * depth - 2].contains("[" + node.getData() + "]"));
+            assertTrue(node.getHorizontalOffsetPercent() > 0 && node.getHorizontalOffsetPercent() < 1);
+            assertEquals((double) depth / compact.getMaxHeight(), node.getVerticalOffsetPercent());
+            if (Objects.nonNull(node.getLeft())) {
+                access.offer((PrintableTree<Integer>.PrintableNode) node.getLeft());
+            }
+            if (Objects.nonNull(node.getRight())) {
+                access.offer((PrintableTree<Integer>.PrintableNode) node.getRight());
+            }
+        }
+    }
+
+    @Test
+    void streamingMatchesRender() throws IOException {
+        BalanceBinarySearchTree<Integer> source = new BalanceBinarySearchTree<>();
+        Random random = new Random(2020);
+        for (int n = 1; n <= 100; n += 11) {
+            while (source.getSize() < n) {
+                source.insert(random.nextInt(100000));
+            }
+            for (LayoutMode mode : LayoutMode.values()) {
+                String expected = new PrintableTree<>(source.getRoot(), mode).render();
+                StringWriter writer = new StringWriter();
+                PrintableTree.write(source.getRoot(), mode, writer);
+                assertEquals(expected, writer.toString(), mode + " 布局 " + n + " 个节点");
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                PrintableTree.write(source.getRoot(), mode, bytes);
+                assertEquals(expected, new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+                bytes.reset();
+                PrintableTree.write(source.getRoot(), mode, Channels.newChannel(bytes));
+                assertEquals(expected, new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Test
+    void streamingDoesNotAllocateContainer() throws IOException {
+        ThreadMXBean bean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled());
+        BalanceBinarySearchTree<Integer> source = new BalanceBinarySearchTree<>();
+        source.bulkLoad(IntStream.range(0, (1 << 12) - 1).boxed().collect(Collectors.toList()));
+        PrintableTree<Integer> tree = new PrintableTree<>(LayoutMode.FULL);
+        tree.cloneSource(source.getRoot());
+        tree.fillNil();
+        tree.measureContainer();
+        tree.buildPrintContainer();
+        long cells = tree.containerCells();
+        long[] written = new long[2];
+        Writer sink = new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) {
+                written[0] += len;
+                if (len == 1 && cbuf[off] == '\n') {
+                    written[1]++;
+                }
+            }
+
+            @Override
+            public void write(int c) {
+                write(new char[]{(char) c}, 0, 1);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        long thread = Thread.currentThread().getId();
+        long start = bean.getThreadAllocatedBytes(thread);
+        tree.writeTo(sink);
+        long allocated = bean.getThreadAllocatedBytes(thread) - start;
+        assertEquals(cells + written[1], written[0]);
+        assertEquals(cells / tree.getContainerWidth(), written[1]);
+        // 容器要占 cells * 2 个字节，流式输出除了一行字符，只为每个节点分配了一个单元块和标签
+        assertTrue(allocated < cells / 8, "容器 " + cells * 2 + " 字节，流式输出分配了 " + allocated + " 字节");
+    }
+
+    @Test
+    void viewportMatchesRender() {
+        BalanceBinarySearchTree<Integer> source = new BalanceBinarySearchTree<>();
+        Random random = new Random(2020);
+        while (source.getSize() < 60) {
+            source.insert(random.nextInt(1000));
+        }
+        for (LayoutMode mode : LayoutMode.values()) {
+            String[] rows = new PrintableTree<>(source.getRoot(), mode).render().split("\n");
+            PrintableTree<Integer> tree = PrintableTree.layout(source.getRoot(), mode);
+            assertEquals(rows.length, tree.getRowCount());
+            assertEquals(rows[0].length(), tree.getContainerWidth());
+            for (int i = 0; i < 200; i++) {
+                int rowFrom = random.nextInt(rows.length + 1);
+                int rowTo = rowFrom + random.nextInt(rows.length - rowFrom + 1);
+                int colFrom = random.nextInt(tree.getContainerWidth() + 1);
+                int colTo = colFrom + random.nextInt(tree.getContainerWidth() - colFrom + 1);
+                char[][] window = tree.viewport(rowFrom, rowTo, colFrom, colTo);
+                assertEquals(rowTo - rowFrom, window.length);
+                for (int r = rowFrom; r < rowTo; r++) {
+                    assertEquals(rows[r].substring(colFrom, colTo), new String(window[r - rowFrom]),
+                            mode + " 布局视口 [" + rowFrom + ", " + rowTo + ") x [" + colFrom + ", " + colTo + ") 第 " + r + " 行");
+                }
+            }
+        }
+    }
+
+    @Test
+    void viewportOfHugeTree() {
+        BalanceBinarySearchTree<Integer> source = new BalanceBinarySearchTree<>();
+        Random random = new Random(2020);
+        while (source.getSize() < 100000) {
+            source.insert(random.nextInt(Integer.MAX_VALUE));
+        }
+        // 整个画布有上万亿个字符，只能看其中一小块
+        PrintableTree<Integer> tree = PrintableTree.layout(source.getRoot(), LayoutMode.SPARSE);
+        assertTrue(tree.containerCells() > 1L << 40);
+        for (int rank = 0; rank < source.getSize(); rank += 9973) {
+            Integer data = source.select(rank).getData();
+            PrintableTree<Integer>.PrintableNode node = tree.search(data, tree.getRoot());
+            int row = tree.rowOf(node.getPrintableNodeDepth());
+            int col = (int) (node.getHorizontalOffsetPercent() * tree.getContainerWidth());
+            int rowFrom = Math.max(row - 10, 0);
+            char[][] window = tree.viewport(rowFrom, Math.min(row + 10, tree.getRowCount()),
+                    Math.max(col - 40, 0), Math.min(col + 40, tree.getContainerWidth()));
+            assertTrue(new String(window[row - rowFrom]).contains("[" + data + "]"));
+            List<PrintableTree<Integer>.PrintableNode> nodes = tree.nodesWithin(node.getHorizontalOffsetPercent(), node.getHorizontalOffsetPercent(),
+                    node.getVerticalOffsetPercent(), node.getVerticalOffsetPercent());
+            assertEquals(Collections.singletonList(node), nodes);
+        }
+    }
+
+    @Test
+    void depthLimitedTreeSummarizesSubtrees() {
+        BalanceBinarySearchTree<Integer> source = new BalanceBinarySearchTree<>();
+        source.bulkLoad(IntStream.range(0, 1000000).boxed().collect(Collectors.toList()));
+        for (LayoutMode mode : LayoutMode.values()) {
+            PrintableTree<Integer> tree = new PrintableTree<>(source.getRoot(), mode, 3);
+            assertEquals(4, tree.getMaxHeight());
+            assertTrue(count(tree.getRoot()) <= 15);
+            String text = tree.render();
+            // 第 4 层的每棵子树都折叠成了一个摘要
+            Queue<BalanceBinarySearchTree<Integer>.Node> access = new ArrayDeque<>();
+            access.offer(source.getRoot());
+            int summaries = 0;
+            while (!access.isEmpty()) {
+                BalanceBinarySearchTree<Integer>.Node node = access.poll();
+                if (node.calculateDepth() == 4) {
+                    String summary = "[n=" + node.getSize() + " " + source.search4Minimum(node).getData() + "~"
+                            + source.search4Maximum(node).getData() + " h=" + node.getHeight() + "]";
+                    assertTrue(text.contains(summary), mode + " 布局缺少摘要 " + summary);
+                    summaries++;
+                    continue;
+                }
+                access.offer(node.getLeft());
+                access.offer(node.getRight());
+            }
+            assertEquals(8, summaries);
+        }
+        // 没有超过最大深度时和不限制深度完全一样
+        assertEquals(new PrintableTree<>(source.around(0, 3)).render(), new PrintableTree<>(source.around(0, 3), LayoutMode.FULL, 10).render());
+    }
+
+    @Test
+    void summaryWithoutSubtreeSize() {
+        PlainNode root = new PlainNode(4,
+                new PlainNode(2, new PlainNode(1, null, null), new PlainNode(3, null, null)),
+                new PlainNode(5, null, null));
+        String text = new PrintableTree<>(root, LayoutMode.SPARSE, 1).render();
+        assertTrue(text.contains("[n=? 1~3 h=2]"));
+        assertTrue(text.contains("[n=? 5~5 h=1]"));
+    }
+
+    @Test
+    void subscribedTreeMatchesFreshBuild() {
+        for (LayoutMode mode : LayoutMode.values()) {
+            for (int maxDepth : new int[]{Integer.MAX_VALUE, 3}) {
+                BalanceBinarySearchTree<Integer> source = new BalanceBinarySearchTree<>();
+                PrintableTree<Integer> live = PrintableTree.subscribe(source, mode, maxDepth);
+                Random random = new Random(2020);
+                for (int i = 0; i < 300; i++) {
+                    int data = random.nextInt(60);
+                    if (random.nextInt(3) == 0) {
+                        source.delete(data);
+                    } else {
+                        source.insert(data);
+                    }
+                    // 有时连续修改几次才打印一次
+                    if (random.nextBoolean()) {
+                        String expected = Objects.isNull(source.getRoot()) ? "" : new PrintableTree<>(source.getRoot(), mode, maxDepth).render();
+                        assertEquals(expected, live.render(), mode + " 布局第 " + i + " 次修改之后和完整构建的不一致");
+                    }
+                }
+                live.unsubscribe();
+            }
+        }
+    }
+
+    @Test
+    void subscribedTreeRedrawsOnlyChangedSubtrees() {
+        BalanceBinarySearchTree<Integer> source = new BalanceBinarySearchTree<>();
+        Random random = new Random(2020);
+        while (source.getSize() < 60) {
+            source.insert(1000 + random.nextInt(9000));
+        }
+        PrintableTree<Integer> live = PrintableTree.subscribe(source, LayoutMode.SPARSE);
+        int changes = 0;
+        for (int i = 0; i < 200; i++) {
+            int data = 1000 + random.nextInt(9000);
+            boolean changed = random.nextBoolean() ? source.insert(data) : source.delete(source.getRoot().getData());
+            if (changed) {
+                changes++;
+                assertEquals(new PrintableTree<>(source.getRoot(), LayoutMode.SPARSE).render(), live.render());
+            }
+        }
+        // 第一次构建也算一次完整重建，之后只有树高变了才需要
+        assertTrue(live.getRebuildCount() - 1 < changes / 4, "完整重建了 " + live.getRebuildCount() + " 次");
+    }
+
+    @Test
+    void renderCacheHitsUntilTreeChanges() {
+        BalanceBinarySearchTree<Integer> source = new BalanceBinarySearchTree<>();
+        IntStream.range(0, 20).forEach(source::insert);
+        RenderCache<PrintableTree<Integer>> cache = new RenderCache<>(2);
+        PrintableTree<Integer> first = cache.get(RenderCache.Key.of(source, LayoutMode.SPARSE, Integer.MAX_VALUE),
+                () -> new PrintableTree<>(source.getRoot(), LayoutMode.SPARSE));
+        for (int i = 0; i < 5; i++) {
+            assertSame(first, cache.get(RenderCache.Key.of(source, LayoutMode.SPARSE, Integer.MAX_VALUE),
+                    () -> new PrintableTree<>(source.getRoot(), LayoutMode.SPARSE)));
+        }
+        assertEquals(5, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        // 查不到、重复插入都不改变版本号，真正插入之后旧的条目不再命中
+        long version = source.getModCount();
+        source.search(5, source.getRoot());
+        assertFalse(source.insert(5));
+        assertEquals(version, source.getModCount());
+        source.insert(20);
+        assertTrue(source.getModCount() > version);
+        PrintableTree<Integer> second = cache.get(RenderCache.Key.of(source, LayoutMode.SPARSE, Integer.MAX_VALUE),
+                () -> new PrintableTree<>(source.getRoot(), LayoutMode.SPARSE));
+        assertNotSame(first, second);
+        assertEquals(new PrintableTree<>(source.getRoot(), LayoutMode.SPARSE).render(), second.render());
+        assertEquals(2, cache.getMisses());
+        // 超过容量时淘汰最久没用过的条目
+        RenderCache.Key full = RenderCache.Key.of(source, LayoutMode.FULL, Integer.MAX_VALUE);
+        cache.get(full, () -> new PrintableTree<>(source.getRoot()));
+        assertSame(second, cache.get(RenderCache.Key.of(source, LayoutMode.SPARSE, Integer.MAX_VALUE), () -> null));
+        cache.get(RenderCache.Key.of(source, LayoutMode.FULL, 2), () -> new PrintableTree<>(source.getRoot(), LayoutMode.FULL, 2));
+        assertEquals(2, cache.size());
+        assertSame(second, cache.get(RenderCache.Key.of(source, LayoutMode.SPARSE, Integer.MAX_VALUE), () -> null));
+        long misses = cache.getMisses();
+        cache.get(full, () -> new PrintableTree<>(source.getRoot()));
+        assertEquals(misses + 1, cache.getMisses());
+    }
+
+    @Test
+    void parallelRenderMatchesSequential() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Random random = new Random(2020);
+            for (int n : new int[]{1, 7, 60, 150}) {
+                BalanceBinarySearchTree<Integer> source = new BalanceBinarySearchTree<>();
+                while (source.getSize() < n) {
+                    source.insert(random.nextInt(1000));
+                }
+                for (LayoutMode mode : LayoutMode.values()) {
+                    for (int maxDepth : new int[]{Integer.MAX_VALUE, 5}) {
+                        String sequential = new PrintableTree<>(source.getRoot(), mode, maxDepth).render();
+                        PrintableTree<Integer> parallel = new PrintableTree<>(source.getRoot(), mode, maxDepth, pool);
+                        assertEquals(sequential, parallel.render(), mode + " 布局 " + n + " 个节点时并行和串行的结果不一致");
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void mappedOutputMatchesRender(@TempDir Path dir) throws IOException {
+        Random random = new Random(2020);
+        BalanceBinarySearchTree<Integer> source = new BalanceBinarySearchTree<>();
+        while (source.getSize() < 40) {
+            source.insert(random.nextInt(1000));
+        }
+        Path file = dir.resolve("tree.txt");
+        for (LayoutMode mode : LayoutMode.values()) {
+            for (int maxDepth : new int[]{Integer.MAX_VALUE, 3}) {
+                byte[] expected = new PrintableTree<>(source.getRoot(), mode, maxDepth).render().getBytes(StandardCharsets.UTF_8);
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    assertEquals(expected.length, PrintableTree.map(source.getRoot(), mode, maxDepth, channel));
+                    assertEquals(expected.length, channel.position());
+                }
+                assertArrayEquals(expected, Files.readAllBytes(file), mode + " 布局映射输出和 render 不一致");
+                // 映射区很小的时候要分很多段映射，结果一样
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    PrintableTree.layout(source.getRoot(), mode, maxDepth).mapTo(channel, 1000);
+                }
+                assertArrayEquals(expected, Files.readAllBytes(file), mode + " 布局分段映射输出和 render 不一致");
+            }
+        }
+    }
+
+    @Test
+    void canvasWritesRenderWithoutChangingOutput() throws IOException {
+        BalanceBinarySearchTree<Integer> numbers = new BalanceBinarySearchTree<>();
+        IntStream.range(0, 30).forEach(numbers::insert);
+        BalanceBinarySearchTree<String> latin1 = new BalanceBinarySearchTree<>();
+        Arrays.asList("café", "naïve", "über", "a", "b").forEach(latin1::insert);
+        BalanceBinarySearchTree<String> wide = new BalanceBinarySearchTree<>();
+        Arrays.asList("树", "打印", "平衡", "a", "b").forEach(wide::insert);
+        for (LayoutMode mode : LayoutMode.values()) {
+            assertWritesRender(numbers.getRoot(), mode);
+            assertWritesRender(latin1.getRoot(), mode);
+            assertWritesRender(wide.getRoot(), mode);
+        }
+        assertTrue(new PrintableTree<>(wide.getRoot()).render().contains("[打印]"));
+    }
+
+    @Test
+    void canvasTakesOneBytePerCell() {
+        ThreadMXBean bean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled());
+        BalanceBinarySearchTree<Integer> source = new BalanceBinarySearchTree<>();
+        source.bulkLoad(IntStream.range(0, (1 << 10) - 1).boxed().collect(Collectors.toList()));
+        PrintableTree<Integer> tree = new PrintableTree<>(LayoutMode.FULL);
+        tree.cloneSource(source.getRoot());
+        tree.fillNil();
+        tree.measureContainer();
+        long cells = tree.containerCells();
+        long before = bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        tree.allocateContainer();
+        long allocated = bean.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        assertTrue(allocated < cells + (cells >> 3), "容器有 " + cells + " 个格子，分配了 " + allocated + " 字节");
+    }
+
+    @Test
+    void deepTreeFailsFastOrDegradesInsteadOfOverflowing() {
+        // 一条 40 层的链，FULL、SPARSE 的画布宽度是 2^39 个单元块，int 早就溢出了
+        PlainNode root = null;
+        for (int i = 40; i > 0; i--) {
+            root = new PlainNode(i, null, root);
+        }
+        for (LayoutMode mode : Arrays.asList(LayoutMode.FULL, LayoutMode.SPARSE)) {
+            PlainNode chain = root;
+            IllegalStateException e = assertThrows(IllegalStateException.class, () -> new PrintableTree<>(chain, mode));
+            assertTrue(e.getMessage().contains("2^39"), e.getMessage());
+            assertThrows(IllegalStateException.class, () -> PrintableTree.layout(chain, mode));
+            PrintableTree<Integer> fitted = PrintableTree.fitting(chain, mode, Integer.MAX_VALUE, null);
+            assertEquals(LayoutMode.COMPACT, fitted.getLayoutMode());
+            assertEquals(new PrintableTree<>(chain, LayoutMode.COMPACT).render(), fitted.render());
+        }
+        // 放得下的树不降级
+        PrintableTree<Integer> shallow = PrintableTree.fitting(root, LayoutMode.FULL, 6, null);
+        assertEquals(LayoutMode.FULL, shallow.getLayoutMode());
+        assertEquals(new PrintableTree<>(root, LayoutMode.FULL, 6).render(), shallow.render());
+    }
+
+    @Test
+    void chunkedCanvasMatchesSingleChunk() throws IOException {
+        for (boolean latin1 : new boolean[]{true, false}) {
+            Canvas whole = Canvas.allocate(37, 23, latin1);
+            // 每块放不下两行，按整行切成 37 块
+            Canvas chunked = Canvas.allocate(37, 23, latin1, 40);
+            assertEquals(37, chunked.chunkCount());
+            Random random = new Random(17);
+            for (Canvas canvas : Arrays.asList(whole, chunked)) {
+                canvas.clear(0, 37);
+                random.setSeed(17);
+                for (int i = 0; i < 200; i++) {
+                    int row = random.nextInt(37);
+                    int col = random.nextInt(20);
+                    canvas.put(row, col, new char[]{'[', (char) ('a' + random.nextInt(26)), ']'});
+                    canvas.fill(random.nextInt(37), col, col + random.nextInt(4), '_');
+                }
+                canvas.clear(5, 9);
+            }
+            for (int row = 0; row < 37; row++) {
+                assertEquals(whole.row(row), chunked.row(row));
+            }
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            whole.write(Channels.newChannel(expected));
+            chunked.write(Channels.newChannel(actual));
+            assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+        }
+    }
+
+    private static <E extends Comparable> void assertWritesRender(INode<E> root, LayoutMode mode) throws IOException {
+        PrintableTree<E> tree = new PrintableTree<>(root, mode);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        tree.writeTo(Channels.newChannel(bytes));
+        assertEquals(tree.render(), new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+        StringWriter streamed = new StringWriter();
+        PrintableTree.write(root, mode, streamed);
+        assertEquals(streamed.toString(), tree.render());
+    }
+
+    private static int count(INode<Integer> node) {
+        return Objects.isNull(node) ? 0 : count(node.getLeft()) + count(node.getRight()) + 1;
+    }
+
+    private static void assertSameOffsets(INode<Integer> source, INode<Integer> full, INode<Integer> sparse) {
+        if (Objects.isNull(source)) {
+            return;
+        }
+        PrintableTree<Integer>.PrintableNode f = (PrintableTree<Integer>.PrintableNode) full;
+        PrintableTree<Integer>.PrintableNode s = (PrintableTree<Integer>.PrintableNode) sparse;
+        assertEquals(f.getHorizontalOffsetPercent(), s.getHorizontalOffsetPercent());
+        assertEquals(f.getVerticalOffsetPercent(), s.getVerticalOffsetPercent());
+        assertSameOffsets(source.getLeft(), full.getLeft(), sparse.getLeft());
+        assertSameOffsets(source.getRight(), full.getRight(), sparse.getRight());
+    }
+
+    /**
+     * 替身节点的数据和深度都和源节点对应，源树上空的位置换成了虚拟节点
+     */
+    private static void assertSameStructure(INode<Integer> source, INode<Integer> twin, int depth, int height) {
+        PrintableTree<Integer>.PrintableNode printable = (PrintableTree<Integer>.PrintableNode) twin;
+        assertEquals(depth, printable.getPrintableNodeDepth());
+        if (Objects.isNull(source)) {
+            assertNull(twin.getData());
+        } else {
+            assertEquals(source.getData(), twin.getData());
+        }
+        if (depth == height) {
+            assertNull(twin.getLeft());
+            assertNull(twin.getRight());
+            return;
+        }
+        assertSameStructure(Objects.isNull(source) ? null : source.getLeft(), twin.getLeft(), depth + 1, height);
+        assertSameStructure(Objects.isNull(source) ? null : source.getRight(), twin.getRight(), depth + 1, height);
+    }
+}